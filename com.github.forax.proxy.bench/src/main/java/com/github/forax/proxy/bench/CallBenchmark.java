@@ -0,0 +1,81 @@
+package com.github.forax.proxy.bench;
+
+import com.github.forax.proxy.bench.Implementations.Kind;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntBinaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Call throughput of the different implementations of a delegating object,
+ * with a primitive signature and a reference signature, on monomorphic (1 class),
+ * bimorphic (2 classes) and megamorphic (4 classes) call sites.
+ *
+ * Run with {@code -prof gc} to get the allocation rate.
+ * <pre>
+ *   java --enable-preview -jar target/benchmarks.jar CallBenchmark -prof gc
+ * </pre>
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class CallBenchmark {
+  private static final int SIZE = 16;
+  private static final IntBinaryOperator SUM = Integer::sum;
+  private static final UnaryOperator<String> STRIP = String::strip;
+
+  @Param
+  Kind kind;
+
+  @Param({"1", "2", "4"})
+  int classes;
+
+  private IntBinaryOperator[] intOperators;
+  private UnaryOperator<String>[] stringOperators;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() throws IllegalAccessException {
+    intOperators = new IntBinaryOperator[SIZE];
+    stringOperators = (UnaryOperator<String>[]) new UnaryOperator<?>[SIZE];
+    for(var index = 0; index < classes; index++) {
+      var intFactory = Implementations.intFactory(kind, index);
+      var stringFactory = Implementations.stringFactory(kind, index);
+      for(var i = index; i < SIZE; i += classes) {
+        intOperators[i] = intFactory.apply(SUM);
+        stringOperators[i] = stringFactory.apply(STRIP);
+      }
+    }
+  }
+
+  @Benchmark
+  public int primitive() {
+    var sum = 0;
+    for(var operator: intOperators) {
+      sum = operator.applyAsInt(sum, 1);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public void reference(Blackhole blackhole) {
+    for(var operator: stringOperators) {
+      blackhole.consume(operator.apply("foo"));
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.github.forax.proxy.bench;
+
+import com.github.forax.proxy.Proxy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.InvocationHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntBinaryOperator;
+
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Time to define a new proxy class and time to the first call of a new proxy,
+ * a hidden proxy is compared with a java.lang.reflect.Proxy (defined in a new class loader to bypass its cache).
+ *
+ * Each operation defines a new class that is never unloaded, so the number of operations is bounded.
+ * <pre>
+ *   java --enable-preview -jar target/benchmarks.jar DefinitionBenchmark
+ * </pre>
+ */
+@Warmup(iterations = 10, batchSize = 100)
+@Measurement(iterations = 20, batchSize = 100)
+@Fork(value = 3, jvmArgsAppend = "--enable-preview")
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DefinitionBenchmark {
+  private static final Lookup LOOKUP = MethodHandles.lookup();
+  private static final Proxy.Linker LINKER = methodInfo -> dropArguments(
+      LOOKUP.findStatic(Integer.class, "sum", methodType(int.class, int.class, int.class)), 0, Object.class);
+  private static final InvocationHandler HANDLER = (proxy, method, args) -> (Integer) args[0] + (Integer) args[1];
+
+  private static Lookup newHiddenProxyClass(Proxy.Option... options) throws IllegalAccessException {
+    return Proxy.defineProxy(LOOKUP, new Class<?>[] { IntBinaryOperator.class }, __ -> false, void.class, LINKER, options);
+  }
+
+  private static IntBinaryOperator newReflectProxy() {
+    var loader = new ClassLoader(DefinitionBenchmark.class.getClassLoader()) { };
+    return (IntBinaryOperator) java.lang.reflect.Proxy.newProxyInstance(loader, new Class<?>[] { IntBinaryOperator.class }, HANDLER);
+  }
+
+  @Benchmark
+  public Lookup defineHiddenProxy() throws IllegalAccessException {
+    return newHiddenProxyClass();
+  }
+
+  @Benchmark
+  public Object defineReflectProxy() {
+    return newReflectProxy();
+  }
+
+  @Benchmark
+  public int firstCallHiddenProxy() throws Throwable {
+    var proxyLookup = newHiddenProxyClass();
+    var proxy = (IntBinaryOperator) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    return proxy.applyAsInt(1, 2);
+  }
+
+  @Benchmark
+  public int firstCallHiddenProxyEager() throws Throwable {
+    var proxyLookup = newHiddenProxyClass(Proxy.Option.EAGER_LINKING);
+    var proxy = (IntBinaryOperator) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    return proxy.applyAsInt(1, 2);
+  }
+
+  @Benchmark
+  public int firstCallReflectProxy() {
+    return newReflectProxy().applyAsInt(1, 2);
+  }
+}
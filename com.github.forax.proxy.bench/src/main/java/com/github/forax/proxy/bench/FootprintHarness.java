@@ -0,0 +1,277 @@
+package com.github.forax.proxy.bench;
+
+import com.github.forax.proxy.Proxy;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures the memory used by the proxy classes, each measure runs in a fresh JVM that defines
+ * a number of proxy classes for interfaces of a given width, links all their methods
+ * and then calls all their methods.
+ *
+ * The Metaspace is measured using the non heap {@link java.lang.management.MemoryPoolMXBean}s
+ * (Metaspace and Compressed Class Space) and the heap is measured after a full GC,
+ * both are reported in bytes per proxy class (after the definition and the creation of an instance),
+ * in bytes per method for the linking with {@link Proxy#prelink(Lookup, java.util.concurrent.Executor)}
+ * and in bytes per method for the first calls that bootstrap the invokedynamic call sites. With {@code --histogram}, the classes with the biggest increase of heap usage
+ * in the class histogram are printed on the standard error.
+ *
+ * The proxies are then released and the Metaspace still used is reported in bytes per proxy class,
+ * with {@code --unloadable} the proxy classes are defined with {@link Proxy.Option#UNLOADABLE}
+ * so the Metaspace should return to its baseline, {@code --retained-budget} checks that it does.
+ * The retained Metaspace includes a fixed cost (around 300 KB) spread over the proxy classes,
+ * so this check needs a few thousands classes.
+ * Those measures depend on the GC and on the machine, so they are done here and not in the unit tests.
+ *
+ * The results are written in a CSV file, one line per width. If a budget is exceeded,
+ * the harness exits with the status 1 so it can be used to catch footprint regressions.
+ * <pre>
+ *   java --enable-preview -cp target/benchmarks.jar com.github.forax.proxy.bench.FootprintHarness \
+ *     --widths 1,10,50,100 --classes 1000 --output footprint.csv \
+ *     --class-budget 20000 --method-budget 2000
+ *   java --enable-preview -cp target/benchmarks.jar com.github.forax.proxy.bench.FootprintHarness \
+ *     --widths 1,10 --classes 4000 --unloadable --retained-budget 256
+ * </pre>
+ */
+public class FootprintHarness {
+  private FootprintHarness() {
+    throw new AssertionError();
+  }
+
+  private static final String HEADER = "width,classes,metaspace_per_class,heap_per_class,metaspace_per_prelinked_method,heap_per_prelinked_method,"
+      + "metaspace_per_called_method,heap_per_called_method,metaspace_retained_per_class";
+  private static final int HISTOGRAM_TOP = 15;
+
+  /**
+   * Launches the forks or runs one fork if the first argument is {@code --fork}.
+   * @param args the command line arguments.
+   * @throws Throwable if a fork fails.
+   */
+  public static void main(String[] args) throws Throwable {
+    if (args.length == 5 && args[0].equals("--fork")) {
+      System.out.println(run(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Boolean.parseBoolean(args[3]), Boolean.parseBoolean(args[4])));
+      return;
+    }
+    var widths = List.of(1, 10, 50, 100);
+    var classes = 1_000;
+    var output = Path.of("footprint.csv");
+    var histogram = false;
+    var unloadable = false;
+    var classBudget = Long.MAX_VALUE;
+    var methodBudget = Long.MAX_VALUE;
+    var retainedBudget = Long.MAX_VALUE;
+    for(var i = 0; i < args.length; i++) {
+      if (args[i].equals("--histogram")) {
+        histogram = true;
+        continue;
+      }
+      if (args[i].equals("--unloadable")) {
+        unloadable = true;
+        continue;
+      }
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("no value for option " + args[i]);
+      }
+      var value = args[++i];
+      switch(args[i - 1]) {
+        case "--widths" -> widths = Arrays.stream(value.split(",")).map(Integer::parseInt).toList();
+        case "--classes" -> classes = Integer.parseInt(value);
+        case "--output" -> output = Path.of(value);
+        case "--class-budget" -> classBudget = Long.parseLong(value);
+        case "--method-budget" -> methodBudget = Long.parseLong(value);
+        case "--retained-budget" -> retainedBudget = Long.parseLong(value);
+        default -> throw new IllegalArgumentException("unknown option " + args[i - 1]);
+      }
+    }
+
+    var lines = new ArrayList<String>();
+    lines.add(HEADER);
+    var overBudget = false;
+    for(var width: widths) {
+      var result = fork(width, classes, histogram, unloadable);
+      var line = width + "," + classes + "," + result;
+      System.out.println(line);
+      lines.add(line);
+
+      var values = Arrays.stream(result.split(",")).mapToLong(Long::parseLong).toArray();
+      if (values[0] + values[1] > classBudget) {
+        System.err.println("width " + width + ": " + (values[0] + values[1]) + " bytes per class, budget " + classBudget);
+        overBudget = true;
+      }
+      var methodBytes = values[2] + values[3] + values[4] + values[5];
+      if (methodBytes > methodBudget) {
+        System.err.println("width " + width + ": " + methodBytes + " bytes per method, budget " + methodBudget);
+        overBudget = true;
+      }
+      if (values[6] > retainedBudget) {
+        System.err.println("width " + width + ": " + values[6] + " bytes of Metaspace retained per class, budget " + retainedBudget);
+        overBudget = true;
+      }
+    }
+    Files.write(output, lines, UTF_8);
+    if (overBudget) {
+      System.exit(1);
+    }
+  }
+
+  private static String fork(int width, int classes, boolean histogram, boolean unloadable) throws IOException, InterruptedException {
+    var java = ProcessHandle.current().info().command().orElse("java");
+    var process = new ProcessBuilder(java, "--enable-preview",
+        "-cp", System.getProperty("java.class.path"),
+        FootprintHarness.class.getName(), "--fork", "" + width, "" + classes, "" + histogram, "" + unloadable)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    String result;
+    try(var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+      result = reader.readLine();
+    }
+    var exitCode = process.waitFor();
+    if (exitCode != 0 || result == null) {
+      throw new IllegalStateException("fork width " + width + " failed with exit code " + exitCode);
+    }
+    return result;
+  }
+
+  private record Usage(long metaspace, long heap) {
+    static Usage current() {
+      for(var i = 0; i < 3; i++) {
+        System.gc();
+      }
+      var metaspace = ManagementFactory.getMemoryPoolMXBeans().stream()
+          .filter(pool -> pool.getType() == MemoryType.NON_HEAP)
+          .filter(pool -> pool.getName().equals("Metaspace") || pool.getName().equals("Compressed Class Space"))
+          .mapToLong(pool -> pool.getUsage().getUsed())
+          .sum();
+      var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+      return new Usage(metaspace, heap);
+    }
+  }
+
+  /**
+   * Returns the invokers of all the methods of a service, typed (Object, int)int.
+   */
+  private static List<MethodHandle> invokers(Lookup lookup, Class<?> service) throws ReflectiveOperationException {
+    var invokers = new ArrayList<MethodHandle>();
+    for(var method: service.getMethods()) {
+      if (Modifier.isAbstract(method.getModifiers())) {
+        invokers.add(lookup.unreflect(method).asType(methodType(int.class, Object.class, int.class)));
+      }
+    }
+    return invokers;
+  }
+
+  /**
+   * Defines a proxy class for each service, creates an instance of each proxy class,
+   * then links all the methods with {@link Proxy#prelink(Lookup, java.util.concurrent.Executor)}
+   * and finally calls all the methods so all the invokedynamic call sites are bootstrapped.
+   */
+  private static List<Usage> defineLinkAndCall(List<Class<?>> services, List<List<MethodHandle>> invokers,
+                                               List<Object> proxies, Proxy.Option... options) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var usages = new ArrayList<Usage>();
+    var proxyLookups = new ArrayList<Lookup>();
+    for(var service: services) {
+      var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { service }, __ -> false, void.class, Services.LINKER, options);
+      proxyLookups.add(proxyLookup);
+      proxies.add(proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke());
+    }
+    usages.add(Usage.current());
+    for(var proxyLookup: proxyLookups) {
+      Proxy.prelink(proxyLookup, Runnable::run).join();
+    }
+    usages.add(Usage.current());
+    for(var i = 0; i < proxies.size(); i++) {
+      var proxy = proxies.get(i);
+      for(var invoker: invokers.get(i)) {
+        if ((int) invoker.invokeExact(proxy, 1) != 1) {
+          throw new AssertionError("wrong result");
+        }
+      }
+    }
+    usages.add(Usage.current());
+    return usages;
+  }
+
+  private static String run(int width, int classCount, boolean histogram, boolean unloadable) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var services = Services.defineServices("FootprintService", classCount, width);
+    var invokers = new ArrayList<List<MethodHandle>>();
+    for(var service: services) {
+      invokers.add(invokers(lookup, service));
+    }
+
+    // warmup, so the classes used by the proxy implementation and the invokers are already loaded
+    var warmupServices = Services.defineServices("FootprintWarmup", 1, width);
+    defineLinkAndCall(warmupServices, List.of(invokers(lookup, warmupServices.get(0))), new ArrayList<>());
+
+    var histogramStart = histogram? classHistogram(): Map.<String, Long>of();
+    var start = Usage.current();
+    var options = unloadable? new Proxy.Option[] { Proxy.Option.UNLOADABLE }: new Proxy.Option[0];
+    var proxies = new ArrayList<Object>();
+    var usages = defineLinkAndCall(services, invokers, proxies, options);
+    var defined = usages.get(0);
+    var prelinked = usages.get(1);
+    var called = usages.get(2);
+    if (histogram) {
+      System.err.println("width " + width + ", class histogram delta:");
+      printHistogramDelta(histogramStart, classHistogram());
+    }
+
+    proxies.clear();
+    var released = Usage.current();
+
+    var methodCount = (long) classCount * width;
+    return ((defined.metaspace - start.metaspace) / classCount) + ","
+        + ((defined.heap - start.heap) / classCount) + ","
+        + ((prelinked.metaspace - defined.metaspace) / methodCount) + ","
+        + ((prelinked.heap - defined.heap) / methodCount) + ","
+        + ((called.metaspace - prelinked.metaspace) / methodCount) + ","
+        + ((called.heap - prelinked.heap) / methodCount) + ","
+        + ((released.metaspace - start.metaspace) / classCount);
+  }
+
+  private static Map<String, Long> classHistogram() throws JMException {
+    var histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+        new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+        new Object[] { null }, new String[] { String[].class.getName() });
+    var map = new HashMap<String, Long>();
+    for(var line: histogram.split("\n")) {
+      // num:  #instances  #bytes  class name (module)
+      var parts = line.trim().split("\\s+");
+      if (parts.length < 4 || !parts[0].endsWith(":")) {
+        continue;
+      }
+      map.merge(parts[3], Long.parseLong(parts[2]), Long::sum);
+    }
+    return map;
+  }
+
+  private static void printHistogramDelta(Map<String, Long> before, Map<String, Long> after) {
+    after.entrySet().stream()
+        .map(entry -> Map.entry(entry.getKey(), entry.getValue() - before.getOrDefault(entry.getKey(), 0L)))
+        .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+        .limit(HISTOGRAM_TOP)
+        .forEach(entry -> System.err.println("  " + entry.getValue() + " bytes " + entry.getKey()));
+  }
+}
@@ -0,0 +1,153 @@
+package com.github.forax.proxy.bench;
+
+import com.github.forax.proxy.Proxy;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.UnaryOperator;
+
+import static java.lang.invoke.MethodHandles.dropArguments;
+
+/**
+ * The different implementations of a delegating object compared by the benchmarks,
+ * each implementation can create up to {@link #MAX_CLASSES} different classes to test polymorphic call sites.
+ */
+public class Implementations {
+  private Implementations() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The kind of implementations.
+   */
+  public enum Kind {
+    /** A hidden proxy from {@link Proxy#defineProxy}, calls go through an invokedynamic. */
+    HIDDEN_PROXY,
+    /** A hidden proxy defined with {@link Proxy.Option#DIRECT_INVOCATION}. */
+    HIDDEN_PROXY_DIRECT,
+    /** A proxy from {@link java.lang.reflect.Proxy} with an invocation handler that uses reflection. */
+    REFLECT_PROXY,
+    /** A lambda that calls the delegate. */
+    LAMBDA,
+    /** A hand written class that calls the delegate. */
+    HANDWRITTEN
+  }
+
+  /**
+   * Maximum number of different classes of an implementation.
+   */
+  static final int MAX_CLASSES = 4;
+
+  // marker interfaces used to get different java.lang.reflect.Proxy classes
+  interface Marker0 {}
+  interface Marker1 {}
+  interface Marker2 {}
+  interface Marker3 {}
+  private static final Class<?>[] MARKERS = { Marker0.class, Marker1.class, Marker2.class, Marker3.class };
+
+  record IntDelegate0(IntBinaryOperator delegate) implements IntBinaryOperator {
+    public int applyAsInt(int left, int right) { return delegate.applyAsInt(left, right); }
+  }
+  record IntDelegate1(IntBinaryOperator delegate) implements IntBinaryOperator {
+    public int applyAsInt(int left, int right) { return delegate.applyAsInt(left, right); }
+  }
+  record IntDelegate2(IntBinaryOperator delegate) implements IntBinaryOperator {
+    public int applyAsInt(int left, int right) { return delegate.applyAsInt(left, right); }
+  }
+  record IntDelegate3(IntBinaryOperator delegate) implements IntBinaryOperator {
+    public int applyAsInt(int left, int right) { return delegate.applyAsInt(left, right); }
+  }
+
+  record StringDelegate0(UnaryOperator<String> delegate) implements UnaryOperator<String> {
+    public String apply(String s) { return delegate.apply(s); }
+  }
+  record StringDelegate1(UnaryOperator<String> delegate) implements UnaryOperator<String> {
+    public String apply(String s) { return delegate.apply(s); }
+  }
+  record StringDelegate2(UnaryOperator<String> delegate) implements UnaryOperator<String> {
+    public String apply(String s) { return delegate.apply(s); }
+  }
+  record StringDelegate3(UnaryOperator<String> delegate) implements UnaryOperator<String> {
+    public String apply(String s) { return delegate.apply(s); }
+  }
+
+  /**
+   * Returns a factory of objects of the class index of an implementation
+   * that delegate to an {@link IntBinaryOperator}.
+   */
+  static Function<IntBinaryOperator, IntBinaryOperator> intFactory(Kind kind, int index) throws IllegalAccessException {
+    return switch(kind) {
+      case HIDDEN_PROXY, HIDDEN_PROXY_DIRECT -> hiddenProxyFactory(IntBinaryOperator.class, kind == Kind.HIDDEN_PROXY_DIRECT);
+      case REFLECT_PROXY -> delegate -> reflectProxy(IntBinaryOperator.class, index, delegate);
+      case LAMBDA -> switch(index) {
+        case 0 -> delegate -> (left, right) -> delegate.applyAsInt(left, right);
+        case 1 -> delegate -> (left, right) -> delegate.applyAsInt(left, right);
+        case 2 -> delegate -> (left, right) -> delegate.applyAsInt(left, right);
+        case 3 -> delegate -> (left, right) -> delegate.applyAsInt(left, right);
+        default -> throw new IllegalArgumentException("index " + index);
+      };
+      case HANDWRITTEN -> switch(index) {
+        case 0 -> IntDelegate0::new;
+        case 1 -> IntDelegate1::new;
+        case 2 -> IntDelegate2::new;
+        case 3 -> IntDelegate3::new;
+        default -> throw new IllegalArgumentException("index " + index);
+      };
+    };
+  }
+
+  /**
+   * Returns a factory of objects of the class index of an implementation
+   * that delegate to an {@link UnaryOperator}.
+   */
+  @SuppressWarnings("unchecked")
+  static Function<UnaryOperator<String>, UnaryOperator<String>> stringFactory(Kind kind, int index) throws IllegalAccessException {
+    return switch(kind) {
+      case HIDDEN_PROXY, HIDDEN_PROXY_DIRECT -> hiddenProxyFactory((Class<UnaryOperator<String>>) (Class<?>) UnaryOperator.class, kind == Kind.HIDDEN_PROXY_DIRECT);
+      case REFLECT_PROXY -> delegate -> reflectProxy(UnaryOperator.class, index, delegate);
+      case LAMBDA -> switch(index) {
+        case 0 -> delegate -> s -> delegate.apply(s);
+        case 1 -> delegate -> s -> delegate.apply(s);
+        case 2 -> delegate -> s -> delegate.apply(s);
+        case 3 -> delegate -> s -> delegate.apply(s);
+        default -> throw new IllegalArgumentException("index " + index);
+      };
+      case HANDWRITTEN -> switch(index) {
+        case 0 -> StringDelegate0::new;
+        case 1 -> StringDelegate1::new;
+        case 2 -> StringDelegate2::new;
+        case 3 -> StringDelegate3::new;
+        default -> throw new IllegalArgumentException("index " + index);
+      };
+    };
+  }
+
+  /**
+   * Defines a new hidden proxy class that delegates to its field and returns a factory of instances.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> Function<T, T> hiddenProxyFactory(Class<T> type, boolean direct) throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = direct?
+        Proxy.defineProxy(lookup, new Class<?>[] { type }, __ -> false, type,
+            methodInfo -> lookup.unreflect(methodInfo.reflectAs(Method.class, lookup)),
+            Proxy.Option.DIRECT_INVOCATION):
+        Proxy.defineProxy(lookup, new Class<?>[] { type }, __ -> false, type,
+            methodInfo -> dropArguments(lookup.unreflect(methodInfo.reflectAs(Method.class, lookup)), 0, Object.class));
+    return Proxy.defineFactory(proxyLookup, Function.class);
+  }
+
+  /**
+   * Creates a java.lang.reflect.Proxy of the class index that delegates to its delegate.
+   */
+  static <T> T reflectProxy(Class<?> type, int index, T delegate) {
+    InvocationHandler handler = (proxy, method, args) -> method.invoke(delegate, args);
+    @SuppressWarnings("unchecked")
+    var proxy = (T) java.lang.reflect.Proxy.newProxyInstance(Implementations.class.getClassLoader(),
+        new Class<?>[] { type, MARKERS[index] }, handler);
+    return proxy;
+  }
+}
@@ -0,0 +1,81 @@
+package com.github.forax.proxy.bench;
+
+import com.github.forax.proxy.Proxy;
+import org.objectweb.asm.ClassWriter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import static java.lang.invoke.MethodType.methodType;
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.V11;
+
+/**
+ * Generates service interfaces of a given width, used by the harnesses that need a lot of
+ * different proxy classes.
+ *
+ * A service interface extends {@link IntUnaryOperator} so the first method can be called without reflection,
+ * the other methods are named m1, m2, etc. and all the methods take an int and return an int.
+ */
+public class Services {
+  private Services() {
+    throw new AssertionError();
+  }
+
+  private static final Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodHandle IDENTITY;
+  static {
+    try {
+      IDENTITY = LOOKUP.findStatic(Services.class, "identity", methodType(int.class, int.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static int identity(int value) {
+    return value;
+  }
+
+  /**
+   * A linker that implements all the methods of a service interface by returning their argument.
+   */
+  static final Proxy.Linker LINKER = methodInfo -> MethodHandles.dropArguments(IDENTITY, 0, Object.class);
+
+  /**
+   * Defines count different service interfaces with methodCount methods.
+   *
+   * @param prefix the prefix of the names of the interfaces.
+   * @param count the number of interfaces.
+   * @param methodCount the number of methods of each interface, at least one.
+   * @return the interfaces.
+   * @throws IllegalAccessException if the interfaces can not be defined.
+   */
+  static List<Class<?>> defineServices(String prefix, int count, int methodCount) throws IllegalAccessException {
+    if (methodCount < 1) {
+      throw new IllegalArgumentException("methodCount < 1");
+    }
+    var services = new ArrayList<Class<?>>();
+    for(var i = 0; i < count; i++) {
+      var name = Services.class.getPackageName().replace('.', '/') + '/' + prefix + i;
+      services.add(LOOKUP.defineClass(generateService(name, methodCount)));
+    }
+    return services;
+  }
+
+  private static byte[] generateService(String name, int methodCount) {
+    var writer = new ClassWriter(0);
+    writer.visit(V11, ACC_PUBLIC | ACC_ABSTRACT | ACC_INTERFACE, name, null, "java/lang/Object",
+        new String[] { "java/util/function/IntUnaryOperator" });
+    for(var i = 1; i < methodCount; i++) {
+      writer.visitMethod(ACC_PUBLIC | ACC_ABSTRACT, "m" + i, "(I)I", null, null).visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
@@ -0,0 +1,162 @@
+package com.github.forax.proxy.bench;
+
+import com.github.forax.proxy.Proxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures the cold start of the proxies, each measure runs in a fresh JVM that defines
+ * a number of proxy classes with a number of methods and calls the first method of each proxy once.
+ *
+ * The time to the first call is split in
+ * <ul>
+ *   <li>first_define: the definition of the first proxy class, it includes the one time initialization
+ *       of the JVM infrastructure (method handles, hidden classes) and of ASM,
+ *   <li>define: the definition of the other proxy classes, the selection of the methods,
+ *       the generation of the bytecode and the definition of the hidden class,
+ *   <li>resolve: the time spent in {@link Proxy.Linker#resolve(java.lang.invoke.MethodHandleInfo)},
+ *   <li>bootstrap: the rest of the first calls, mostly {@link Proxy#proxyMetaFactory} and the linking
+ *       of the call sites.
+ * </ul>
+ * The library has no hook to time the generation of the bytecode alone, so the column cached_define
+ * reports the time of a second definition of the other proxy classes that reuses the cached bytecode,
+ * it is not part of the time to the first call. The difference between define and cached_define
+ * approximates the time spent generating the bytecode.
+ * The results are written in a CSV file, one line per fork, the times are in microseconds.
+ * <pre>
+ *   java --enable-preview -cp target/benchmarks.jar com.github.forax.proxy.bench.StartupHarness \
+ *     --proxies 1,10,100 --methods 1,10,50 --forks 5 --output startup.csv
+ * </pre>
+ */
+public class StartupHarness {
+  private StartupHarness() {
+    throw new AssertionError();
+  }
+
+  private static final String HEADER = "proxies,methods,fork,first_define_us,define_us,cached_define_us,resolve_us,bootstrap_us,time_to_first_call_us,jvm_uptime_ms";
+
+  private static long resolveTime;
+
+  /**
+   * Launches the forks or runs one fork if the first argument is {@code --fork}.
+   * @param args the command line arguments.
+   * @throws Throwable if a fork fails.
+   */
+  public static void main(String[] args) throws Throwable {
+    if (args.length == 3 && args[0].equals("--fork")) {
+      System.out.println(run(Integer.parseInt(args[1]), Integer.parseInt(args[2])));
+      return;
+    }
+    var proxies = List.of(1, 10, 100);
+    var methods = List.of(1, 10, 50);
+    var forks = 5;
+    var output = Path.of("startup.csv");
+    for(var i = 0; i < args.length; i += 2) {
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("no value for option " + args[i]);
+      }
+      var value = args[i + 1];
+      switch(args[i]) {
+        case "--proxies" -> proxies = parseInts(value);
+        case "--methods" -> methods = parseInts(value);
+        case "--forks" -> forks = Integer.parseInt(value);
+        case "--output" -> output = Path.of(value);
+        default -> throw new IllegalArgumentException("unknown option " + args[i]);
+      }
+    }
+
+    var lines = new ArrayList<String>();
+    lines.add(HEADER);
+    for(var proxyCount: proxies) {
+      for(var methodCount: methods) {
+        for(var fork = 0; fork < forks; fork++) {
+          var line = proxyCount + "," + methodCount + "," + fork + "," + fork(proxyCount, methodCount);
+          System.out.println(line);
+          lines.add(line);
+        }
+      }
+    }
+    Files.write(output, lines, UTF_8);
+  }
+
+  private static List<Integer> parseInts(String value) {
+    return Arrays.stream(value.split(",")).map(Integer::parseInt).toList();
+  }
+
+  private static String fork(int proxyCount, int methodCount) throws IOException, InterruptedException {
+    var java = ProcessHandle.current().info().command().orElse("java");
+    var process = new ProcessBuilder(java, "--enable-preview",
+        "-cp", System.getProperty("java.class.path"),
+        StartupHarness.class.getName(), "--fork", "" + proxyCount, "" + methodCount)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    String result;
+    try(var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+      result = reader.readLine();
+    }
+    var exitCode = process.waitFor();
+    if (exitCode != 0 || result == null) {
+      throw new IllegalStateException("fork " + proxyCount + " proxies " + methodCount + " methods failed with exit code " + exitCode);
+    }
+    return result;
+  }
+
+  private static String run(int proxyCount, int methodCount) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var services = Services.defineServices("StartupService", proxyCount, methodCount);
+    Proxy.Linker linker = methodInfo -> {
+      var start = System.nanoTime();
+      try {
+        return Services.LINKER.resolve(methodInfo);
+      } finally {
+        resolveTime += System.nanoTime() - start;
+      }
+    };
+
+    long firstDefineTime = 0, defineTime = 0, cachedDefineTime = 0, firstCallTime = 0;
+    var sum = 0;
+    for(var i = 0; i < services.size(); i++) {
+      var interfaces = new Class<?>[] { services.get(i) };
+      var start = System.nanoTime();
+      var proxyLookup = Proxy.defineProxy(lookup, interfaces, __ -> false, void.class, linker);
+      var end = System.nanoTime();
+      if (i == 0) {
+        firstDefineTime = end - start;
+      } else {
+        defineTime += end - start;
+        Proxy.defineProxy(lookup, interfaces, __ -> false, void.class, linker);  // the bytecode is cached
+        cachedDefineTime += System.nanoTime() - end;
+      }
+
+      var proxy = (IntUnaryOperator) newInstance(proxyLookup);
+      var callStart = System.nanoTime();
+      sum += proxy.applyAsInt(1);
+      firstCallTime += System.nanoTime() - callStart;
+    }
+    if (sum != proxyCount) {
+      throw new AssertionError("wrong result " + sum);
+    }
+    var uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+    return (firstDefineTime / 1_000) + "," + (defineTime / 1_000) + "," + (cachedDefineTime / 1_000) + ","
+        + (resolveTime / 1_000) + "," + ((firstCallTime - resolveTime) / 1_000) + ","
+        + ((firstDefineTime + defineTime + firstCallTime) / 1_000) + "," + uptime;
+  }
+
+  private static Object newInstance(Lookup proxyLookup) throws Throwable {
+    return proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+  }
+}
@@ -0,0 +1,238 @@
+package com.github.forax.proxy;
+
+import com.github.forax.proxy.Proxy.Linker;
+import com.github.forax.proxy.Proxy.Option;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Defines proxy classes that send all the calls to a single {@link Handler} with the index of the method,
+ * the arguments are passed in primitive slots so the common methods are called without boxing
+ * and without allocating an array.
+ *
+ * The index of a method is its position in the list returned by {@link #methods(Class[], Predicate, Option...)}.
+ */
+public class IndexedProxy {
+  private IndexedProxy() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The number of slots of each kind of {@link Handler}.
+   */
+  public static final int SLOT_COUNT = 2;
+
+  /**
+   * A handler called by the proxy for all methods.
+   *
+   * If a method has at most {@link #SLOT_COUNT} parameters of type boolean, byte, char, short, int or long,
+   * at most {@link #SLOT_COUNT} parameters of type float or double and at most {@link #SLOT_COUNT}
+   * parameters of a reference type, the arguments are passed in order in the corresponding slots
+   * (a boolean is passed as 0 or 1) and the unused slots are 0, 0.0 or null.
+   * The handler is called with {@link #invokeLong(Object, int, long, long, double, double, Object, Object)}
+   * if the method returns a boolean (the low bit), a byte, a char, a short, an int or a long,
+   * with {@link #invokeDouble(Object, int, long, long, double, double, Object, Object)} if the method
+   * returns a float or a double, and with {@link #invokeObject(Object, int, long, long, double, double, Object, Object)}
+   * otherwise (the result is ignored if the method returns void).
+   *
+   * The other methods are called with {@link #invoke(Object, int, Object[])}.
+   */
+  public interface Handler {
+    /**
+     * Called for the methods with too many parameters to use the slots.
+     * @param proxy the proxy.
+     * @param index the index of the method.
+     * @param args the arguments boxed in an array.
+     * @return the return value boxed or null if the method returns void.
+     * @throws Throwable any exception
+     */
+    Object invoke(Object proxy, int index, Object[] args) throws Throwable;
+
+    /**
+     * Called for the methods returning a reference or void.
+     * @param proxy the proxy.
+     * @param index the index of the method.
+     * @param long0 the first integral argument or 0.
+     * @param long1 the second integral argument or 0.
+     * @param double0 the first floating point argument or 0.0.
+     * @param double1 the second floating point argument or 0.0.
+     * @param object0 the first reference argument or null.
+     * @param object1 the second reference argument or null.
+     * @return the return value or null if the method returns void.
+     * @throws Throwable any exception
+     */
+    Object invokeObject(Object proxy, int index, long long0, long long1, double double0, double double1, Object object0, Object object1) throws Throwable;
+
+    /**
+     * Called for the methods returning a boolean, a byte, a char, a short, an int or a long.
+     * @param proxy the proxy.
+     * @param index the index of the method.
+     * @param long0 the first integral argument or 0.
+     * @param long1 the second integral argument or 0.
+     * @param double0 the first floating point argument or 0.0.
+     * @param double1 the second floating point argument or 0.0.
+     * @param object0 the first reference argument or null.
+     * @param object1 the second reference argument or null.
+     * @return the return value.
+     * @throws Throwable any exception
+     */
+    long invokeLong(Object proxy, int index, long long0, long long1, double double0, double double1, Object object0, Object object1) throws Throwable;
+
+    /**
+     * Called for the methods returning a float or a double.
+     * @param proxy the proxy.
+     * @param index the index of the method.
+     * @param long0 the first integral argument or 0.
+     * @param long1 the second integral argument or 0.
+     * @param double0 the first floating point argument or 0.0.
+     * @param double1 the second floating point argument or 0.0.
+     * @param object0 the first reference argument or null.
+     * @param object1 the second reference argument or null.
+     * @return the return value.
+     * @throws Throwable any exception
+     */
+    double invokeDouble(Object proxy, int index, long long0, long long1, double double0, double double1, Object object0, Object object1) throws Throwable;
+  }
+
+  /**
+   * Returns the methods implemented by a proxy class defined by
+   * {@link #defineProxy(Lookup, Class[], Predicate, Option...)}, the index of a method is its position in the list.
+   *
+   * @param interfaces the interfaces implemented by the proxy class.
+   * @param shouldOverride a predicate indicating if methods of java.lang.Object or default method
+   *                       should be overridden or not
+   * @param options the options used to define the proxy class.
+   * @return the list of the methods of the proxy class.
+   * @throws NullPointerException if any parameter is null
+   */
+  public static List<Method> methods(Class<?>[] interfaces, Predicate<Method> shouldOverride, Option... options) {
+    Objects.requireNonNull(interfaces);
+    Objects.requireNonNull(shouldOverride);
+    return Proxy.proxyMethods(interfaces, shouldOverride, Proxy.optionSet(options)).stream()
+        .map(Proxy.MethodEntry::method)
+        .toList();
+  }
+
+  /**
+   * Defines a proxy class with a field of type {@link Handler}, the constructor of the proxy class
+   * takes the handler as parameter.
+   *
+   * @param lookup the lookup used to define the proxy class.
+   * @param interfaces the interfaces implemented by the proxy class.
+   * @param shouldOverride a predicate indicating if methods of java.lang.Object or default method
+   *                       should be overridden or not
+   * @param options the options used to define the proxy class.
+   * @return a lookup on the proxy class.
+   * @throws IllegalAccessException if this Lookup does not have full privilege access
+   * @throws NullPointerException if any parameter is null
+   * @see #methods(Class[], Predicate, Option...)
+   */
+  public static Lookup defineProxy(Lookup lookup, Class<?>[] interfaces, Predicate<Method> shouldOverride, Option... options) throws IllegalAccessException {
+    var methods = methods(interfaces, shouldOverride, options);
+    var indexMap = new HashMap<String, Integer>();
+    for(var i = 0; i < methods.size(); i++) {
+      var method = methods.get(i);
+      indexMap.put(method.getName() + methodType(method.getReturnType(), method.getParameterTypes()).descriptorString(), i);
+    }
+    Linker linker = methodInfo -> link(methodInfo, indexMap.get(methodInfo.getName() + methodInfo.getMethodType().descriptorString()));
+    return Proxy.defineProxy(lookup, interfaces, shouldOverride, Handler.class, linker, options);
+  }
+
+  private static final MethodHandle INVOKE, INVOKE_OBJECT, INVOKE_LONG, INVOKE_DOUBLE;
+  static {
+    var lookup = MethodHandles.lookup();
+    var slotTypes = List.<Class<?>>of(Object.class, int.class, long.class, long.class, double.class, double.class, Object.class, Object.class);
+    try {
+      INVOKE = lookup.findVirtual(Handler.class, "invoke", methodType(Object.class, Object.class, int.class, Object[].class));
+      INVOKE_OBJECT = lookup.findVirtual(Handler.class, "invokeObject", methodType(Object.class, slotTypes));
+      INVOKE_LONG = lookup.findVirtual(Handler.class, "invokeLong", methodType(long.class, slotTypes));
+      INVOKE_DOUBLE = lookup.findVirtual(Handler.class, "invokeDouble", methodType(double.class, slotTypes));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static Class<?> slotType(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return Object.class;
+    }
+    return type == float.class || type == double.class? double.class: long.class;
+  }
+
+  /**
+   * Returns a method handle typed (proxy, handler, parameters...) return type.
+   */
+  private static MethodHandle link(MethodHandleInfo methodInfo, int index) {
+    var methodType = methodInfo.getMethodType();
+    var callSiteType = methodType.insertParameterTypes(0, Object.class, Handler.class);
+
+    // count the arguments of each kind of slot
+    var longs = new ArrayList<Integer>();
+    var doubles = new ArrayList<Integer>();
+    var objects = new ArrayList<Integer>();
+    for(var i = 0; i < methodType.parameterCount(); i++) {
+      var slotType = slotType(methodType.parameterType(i));
+      (slotType == long.class? longs: slotType == double.class? doubles: objects).add(i);
+    }
+    if (longs.size() > SLOT_COUNT || doubles.size() > SLOT_COUNT || objects.size() > SLOT_COUNT) {
+      // (handler, proxy, index, args) -> (proxy, handler, parameters...)
+      var target = MethodHandles.insertArguments(INVOKE, 2, index).asCollector(Object[].class, methodType.parameterCount());
+      var reorder = MethodHandles.permuteArguments(target,
+          target.type().changeParameterType(0, Object.class).changeParameterType(1, Handler.class),
+          reorder(1, 0, methodType.parameterCount()));
+      return reorder.asType(callSiteType);
+    }
+
+    var returnSlotType = methodType.returnType() == void.class? Object.class: slotType(methodType.returnType());
+    var target = returnSlotType == long.class? INVOKE_LONG: returnSlotType == double.class? INVOKE_DOUBLE: INVOKE_OBJECT;
+    target = MethodHandles.insertArguments(target, 2, index);
+
+    // fill the unused slots, from the last one so the positions do not change
+    var positions = new ArrayList<Integer>();
+    positions.add(1);  // proxy
+    positions.add(0);  // handler
+    for(var slot = 3 * SLOT_COUNT - 1; slot >= 0; slot--) {
+      var kind = slot / SLOT_COUNT;
+      var used = (kind == 0? longs: kind == 1? doubles: objects).size();
+      if (slot % SLOT_COUNT >= used) {
+        var value = kind == 0? (Object) 0L: kind == 1? (Object) 0.0: null;
+        target = MethodHandles.insertArguments(target, 2 + slot, value);
+      }
+    }
+    for(var slotArguments: List.of(longs, doubles, objects)) {
+      for(var argument: slotArguments) {
+        positions.add(2 + argument);
+      }
+    }
+    var slotsType = MethodType.methodType(returnSlotType, slotTypes(methodType)).insertParameterTypes(0, Object.class, Handler.class);
+    var permutation = positions.stream().mapToInt(i -> i).toArray();
+    var slots = MethodHandles.permuteArguments(target, slotsType, permutation);
+    return MethodHandles.explicitCastArguments(slots, callSiteType);
+  }
+
+  private static List<Class<?>> slotTypes(MethodType methodType) {
+    return methodType.parameterList().stream().<Class<?>>map(IndexedProxy::slotType).toList();
+  }
+
+  private static int[] reorder(int first, int second, int parameterCount) {
+    var reorder = new int[2 + parameterCount];
+    reorder[0] = first;
+    reorder[1] = second;
+    for(var i = 0; i < parameterCount; i++) {
+      reorder[2 + i] = 2 + i;
+    }
+    return reorder;
+  }
+}
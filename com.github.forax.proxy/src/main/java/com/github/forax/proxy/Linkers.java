@@ -0,0 +1,296 @@
+package com.github.forax.proxy;
+
+import com.github.forax.proxy.Proxy.Linker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.WrongMethodTypeException;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import static java.lang.invoke.MethodHandles.catchException;
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.exactInvoker;
+import static java.lang.invoke.MethodHandles.filterReturnValue;
+import static java.lang.invoke.MethodHandles.foldArguments;
+import static java.lang.invoke.MethodHandles.guardWithTest;
+import static java.lang.invoke.MethodHandles.identity;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.tryFinally;
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Predefined {@link Linker}s.
+ */
+public class Linkers {
+  private Linkers() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Returns a linker for proxies that delegate all the calls to their delegate field, each method
+   * of the proxy uses an inline cache keyed by the class of the delegate.
+   *
+   * The first time a method is called with a delegate of a new class, the method of that class is looked up
+   * and installed in the inline cache behind a class check, so the calls to that class are direct calls
+   * to the concrete implementation. When more than depth classes have been seen, the inline cache
+   * becomes megamorphic and calls the method of the interface on the delegate.
+   * A depth of 1 creates a monomorphic inline cache, a depth of 2 a bimorphic one, etc.
+   *
+   * The proxy must have been defined with a delegate field that implements the interfaces of the proxy.
+   *
+   * @param lookup the lookup used to find the methods of the classes of the delegate.
+   * @param depth the maximum number of classes in an inline cache.
+   * @return a linker that delegates all the calls to the delegate field.
+   * @throws IllegalArgumentException if depth is negative
+   * @throws NullPointerException if lookup is null
+   */
+  public static Linker inlineCache(Lookup lookup, int depth) {
+    Objects.requireNonNull(lookup);
+    if (depth < 0) {
+      throw new IllegalArgumentException("depth < 0");
+    }
+    return inlineCache(lookup, depth, __ -> {});
+  }
+
+  /**
+   * Returns the same linker as {@link #inlineCache(Lookup, int)} but reports each inline cache created,
+   * used by the tests to check the state of the inline caches.
+   */
+  static Linker inlineCache(Lookup lookup, int depth, Consumer<? super InliningCache> listener) {
+    return methodInfo -> {
+      var inliningCache = new InliningCache(lookup, methodInfo, depth);
+      listener.accept(inliningCache);
+      return inliningCache.dynamicInvoker();
+    };
+  }
+
+  /**
+   * A decorator that wraps the method handle that implements a method of a proxy.
+   */
+  @FunctionalInterface
+  public interface Decorator {
+    /**
+     * Returns a method handle that wraps the target, with the same type as the target.
+     * @param methodInfo the method of the proxy that should be implemented.
+     * @param target the method handle to wrap.
+     * @return a method handle that wraps the target.
+     * @throws Throwable any exception
+     */
+    MethodHandle decorate(MethodHandleInfo methodInfo, MethodHandle target) throws Throwable;
+  }
+
+  /**
+   * Returns a linker that wraps the method handles returned by a linker with decorators.
+   * The first decorator is the outermost one, so it is called first.
+   *
+   * Instead of stacking proxies, one per decorator, the decorators are composed in a single method handle
+   * installed in the proxy, so a call goes through only one proxy and the JIT can inline the whole chain.
+   *
+   * @param linker the linker that returns the method handles to decorate.
+   * @param decorators the decorators, from the outermost to the innermost.
+   * @return a linker that decorates the method handles returned by the linker.
+   * @throws NullPointerException if a parameter or a decorator is null
+   */
+  public static Linker decorate(Linker linker, List<? extends Decorator> decorators) {
+    Objects.requireNonNull(linker);
+    var decoratorList = List.<Decorator>copyOf(decorators);
+    return methodInfo -> {
+      var target = linker.resolve(methodInfo);
+      for(var i = decoratorList.size(); --i >= 0;) {
+        var decorated = decoratorList.get(i).decorate(methodInfo, target);
+        if (!decorated.type().equals(target.type())) {
+          throw new WrongMethodTypeException("decorator " + decoratorList.get(i) + " returns " + decorated.type() + " instead of " + target.type());
+        }
+        target = decorated;
+      }
+      return target;
+    };
+  }
+
+  /**
+   * Returns a decorator that calls an advice before the target.
+   * The advice takes the first arguments of the target (possibly none) and its return value is ignored.
+   *
+   * @param advice the method handle called before the target.
+   * @return a decorator that calls the advice before the target.
+   * @throws NullPointerException if advice is null
+   * @see MethodHandles#foldArguments(MethodHandle, MethodHandle)
+   */
+  public static Decorator before(MethodHandle advice) {
+    Objects.requireNonNull(advice);
+    return (methodInfo, target) -> foldArguments(target, advice.asType(methodType(void.class, prefix(target.type(), advice.type().parameterCount()))));
+  }
+
+  /**
+   * Returns a decorator that calls an advice after the target returns normally.
+   * The advice takes the return value of the target and returns the value returned by the method,
+   * if the target returns void, the advice takes no argument.
+   *
+   * @param advice the method handle called after the target.
+   * @return a decorator that calls the advice after the target.
+   * @throws NullPointerException if advice is null
+   * @see MethodHandles#filterReturnValue(MethodHandle, MethodHandle)
+   */
+  public static Decorator after(MethodHandle advice) {
+    Objects.requireNonNull(advice);
+    return (methodInfo, target) -> {
+      var returnType = target.type().returnType();
+      var filterType = returnType == void.class? methodType(void.class): methodType(returnType, returnType);
+      return filterReturnValue(target, advice.asType(filterType));
+    };
+  }
+
+  /**
+   * Returns a decorator that calls an advice instead of the target.
+   * The advice takes the target as first argument followed by the arguments of the target,
+   * and is responsible to call the target with {@link MethodHandle#invokeExact(Object...)}.
+   * The target is a constant of the decorated method handle so the call can be inlined.
+   *
+   * @param advice the method handle called instead of the target.
+   * @return a decorator that calls the advice instead of the target.
+   * @throws NullPointerException if advice is null
+   */
+  public static Decorator around(MethodHandle advice) {
+    Objects.requireNonNull(advice);
+    return (methodInfo, target) -> insertArguments(advice.asType(target.type().insertParameterTypes(0, MethodHandle.class)), 0, target);
+  }
+
+  /**
+   * Returns a decorator that calls a handler if the target throws an exception of a given type.
+   * The handler takes the exception followed by the first arguments of the target (possibly none)
+   * and returns the value returned by the method.
+   *
+   * @param exceptionType the type of the exceptions to catch.
+   * @param handler the method handle called if an exception is thrown.
+   * @return a decorator that calls the handler if the target throws an exception.
+   * @throws NullPointerException if any parameter is null
+   * @see MethodHandles#catchException(MethodHandle, Class, MethodHandle)
+   */
+  public static Decorator onException(Class<? extends Throwable> exceptionType, MethodHandle handler) {
+    Objects.requireNonNull(exceptionType);
+    Objects.requireNonNull(handler);
+    return (methodInfo, target) -> {
+      var targetType = target.type();
+      var prefixCount = handler.type().parameterCount() - 1;
+      var handlerType = methodType(targetType.returnType(), prefix(targetType, prefixCount)).insertParameterTypes(0, exceptionType);
+      var catcher = dropArguments(handler.asType(handlerType), 1 + prefixCount, targetType.parameterList().subList(prefixCount, targetType.parameterCount()));
+      return catchException(target, exceptionType, catcher);
+    };
+  }
+
+  /**
+   * Returns a decorator that calls a cleanup after the target returns or throws an exception.
+   * The cleanup takes the exception thrown by the target or null.
+   *
+   * @param cleanup the method handle called after the target.
+   * @return a decorator that calls the cleanup after the target.
+   * @throws NullPointerException if cleanup is null
+   * @see MethodHandles#tryFinally(MethodHandle, MethodHandle)
+   */
+  public static Decorator onFinally(MethodHandle cleanup) {
+    Objects.requireNonNull(cleanup);
+    return (methodInfo, target) -> {
+      var returnType = target.type().returnType();
+      var cleanupAdvice = cleanup.asType(methodType(void.class, Throwable.class));
+      if (returnType == void.class) {
+        return tryFinally(target, cleanupAdvice);
+      }
+      // (throwable, result) -> result
+      return tryFinally(target, foldArguments(dropArguments(identity(returnType), 0, Throwable.class), cleanupAdvice));
+    };
+  }
+
+  private static List<Class<?>> prefix(MethodType type, int count) {
+    if (count < 0 || count > type.parameterCount()) {
+      throw new WrongMethodTypeException("an advice can not take " + count + " arguments of " + type);
+    }
+    return type.parameterList().subList(0, count);
+  }
+
+  static final class InliningCache extends MutableCallSite {
+    private static final MethodHandle MISS, CHECK_CLASS;
+    static {
+      var lookup = MethodHandles.lookup();
+      try {
+        MISS = lookup.findVirtual(InliningCache.class, "miss", methodType(MethodHandle.class, Object.class));
+        CHECK_CLASS = lookup.findStatic(InliningCache.class, "checkClass", methodType(boolean.class, Class.class, Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private final Lookup lookup;
+    private final MethodHandleInfo methodInfo;
+    private final MethodHandle megamorphic;
+    private int remainingDepth;
+    private int concreteTargetCount;
+    private boolean isMegamorphic;
+
+    private InliningCache(Lookup lookup, MethodHandleInfo methodInfo, int depth) throws NoSuchMethodException, IllegalAccessException {
+      super(methodInfo.getMethodType().insertParameterTypes(0, Object.class, methodInfo.getDeclaringClass()));
+      this.lookup = lookup;
+      this.methodInfo = methodInfo;
+      this.remainingDepth = depth;
+      var type = type();
+      megamorphic = dropArguments(
+          lookup.findVirtual(methodInfo.getDeclaringClass(), methodInfo.getName(), methodInfo.getMethodType()),
+          0, Object.class);
+      var miss = dropArguments(MISS.bindTo(this).asType(methodType(MethodHandle.class, type.parameterType(1))), 0, Object.class);
+      setTarget(foldArguments(exactInvoker(type), miss));
+    }
+
+    /**
+     * Returns the number of concrete targets installed in the inline cache.
+     */
+    synchronized int concreteTargetCount() {
+      return concreteTargetCount;
+    }
+
+    /**
+     * Returns true if the inline cache has seen too many classes and calls the method of the interface.
+     */
+    synchronized boolean isMegamorphic() {
+      return isMegamorphic;
+    }
+
+    private static boolean checkClass(Class<?> type, Object o) {
+      return o.getClass() == type;
+    }
+
+    private MethodHandle miss(Object delegate) {
+      var delegateClass = delegate.getClass();
+      synchronized (this) {
+        if (remainingDepth == 0) {
+          isMegamorphic = true;
+          setTarget(megamorphic);
+          return megamorphic;
+        }
+        remainingDepth--;
+        var target = concreteTarget(delegateClass);
+        if (target != megamorphic) {
+          concreteTargetCount++;
+        }
+        var type = type();
+        var test = dropArguments(insertArguments(CHECK_CLASS, 0, delegateClass).asType(methodType(boolean.class, type.parameterType(1))), 0, Object.class);
+        setTarget(guardWithTest(test, target, getTarget()));
+        return target;
+      }
+    }
+
+    private MethodHandle concreteTarget(Class<?> delegateClass) {
+      MethodHandle target;
+      try {
+        target = lookup.findVirtual(delegateClass, methodInfo.getName(), methodInfo.getMethodType());
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        return megamorphic;  // the class is not accessible, use the interface method
+      }
+      return dropArguments(target, 0, Object.class).asType(type());
+    }
+  }
+}
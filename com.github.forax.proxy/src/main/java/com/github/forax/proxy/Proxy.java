@@ -1,6 +1,7 @@
 package com.github.forax.proxy;
 
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
 
@@ -11,17 +12,28 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandleInfo;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
 import java.lang.invoke.WrongMethodTypeException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.runtime.ObjectMethods;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Predicate;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodHandles.Lookup.ClassOption;
-import java.util.stream.Stream;
 
 import static java.lang.constant.ConstantDescs.*;
 import static org.objectweb.asm.Opcodes.*;
@@ -44,6 +56,112 @@ public class Proxy {
     MethodHandle resolve(MethodHandleInfo methodInfo) throws Throwable;
   }
 
+  /**
+   * Options that change the way a proxy class is defined.
+   */
+  public enum Option {
+    /**
+     * Calls the linker for all the methods of the proxy when the proxy class is defined
+     * instead of lazily, the first time each method is called.
+     * The linking errors are thrown by {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+     */
+    EAGER_LINKING,
+
+    /**
+     * Schedules the linking of all the methods of the proxy in the background when the proxy class is defined,
+     * using a default executor that runs each linking in its own daemon thread.
+     * @see #prelink(Lookup, Executor)
+     */
+    BACKGROUND_LINKING,
+
+    /**
+     * Calls the linker for all the methods of the proxy when the proxy class is generated and,
+     * if the linker returns a direct method handle (a method handle obtained by
+     * {@link Lookup#findStatic(Class, String, MethodType)}, {@link Lookup#findVirtual(Class, String, MethodType)} or
+     * {@link Lookup#unreflect(Method)}) that only ignores the leading proxy and/or delegate arguments,
+     * generates a direct call to the target method instead of an invokedynamic.
+     * The other methods are linked as with {@link #EAGER_LINKING}.
+     *
+     * The bytecode of a proxy class defined with this option depends on the linker so it is not shared.
+     */
+    DIRECT_INVOCATION,
+
+    /**
+     * Generates a proxy class that calls its methods through a table of method handles loaded with
+     * a single constant dynamic instead of using one invokedynamic per method.
+     * A proxy class with more than 64 methods called through an invokedynamic uses this shape even
+     * if this option is not set, this threshold can be changed with the system property
+     * {@code com.github.forax.proxy.methodTableThreshold} and the option {@link #INVOKEDYNAMIC_PER_METHOD}
+     * disables this behavior.
+     *
+     * The table uses less memory and requires less bootstraps but its slots are not constants for the JIT,
+     * so a call through the table is never inlined, unlike a call through an invokedynamic.
+     */
+    METHOD_TABLE,
+
+    /**
+     * Generates a proxy class that calls each of its methods through its own invokedynamic whatever the number
+     * of methods, so a proxy class with a lot of methods does not use the {@link #METHOD_TABLE} shape
+     * and all its calls can be inlined.
+     * This option can not be used with {@link #METHOD_TABLE} or {@link #INSTANCE_METHOD_TABLE}.
+     */
+    INVOKEDYNAMIC_PER_METHOD,
+
+    /**
+     * Generates a proxy class whose methods can be linked again with {@link #relink(Lookup, Predicate)},
+     * the methods are called through {@link MutableCallSite}s instead of {@link ConstantCallSite}s.
+     * This option can not be used with {@link #DIRECT_INVOCATION}.
+     */
+    RELINKABLE,
+
+    /**
+     * Types the proxy passed as first argument to the method handles returned by the linker
+     * with the class that declares the method (an interface or java.lang.Object) instead of
+     * the first interface (or java.lang.Object if there is no interface).
+     * With this option, a linker of a proxy implementing several interfaces can return a method handle
+     * that takes the declaring interface as first parameter without any cast, so it can be called directly
+     * with {@link #DIRECT_INVOCATION}.
+     */
+    DECLARING_CLASS_RECEIVER,
+
+    /**
+     * Creates a canonical instance of a proxy class without field when the proxy class is defined,
+     * this instance is returned by {@link #singleton(Lookup, Class)} and by the factories
+     * defined by {@link #defineFactory(Lookup, Class)}.
+     * The constructor of the proxy class can still be called, so the identity of the instances
+     * of the proxy class is only guaranteed if they are all obtained through those methods.
+     */
+    SINGLETON,
+
+    /**
+     * Implements equals, hashCode and toString using the values of the fields of the proxy,
+     * two proxies are equals if they are instances of the same proxy class and their fields are equals.
+     * Those methods are always overridden and the linker is not called for them.
+     * @see java.lang.runtime.ObjectMethods
+     */
+    VALUE_OBJECT_METHODS,
+
+    /**
+     * Generates a proxy class whose instances call their methods through their own table of method handles,
+     * so instances of the same proxy class can have different behaviors.
+     * The constructor of the proxy class takes the method table as first parameter,
+     * the method tables are created by {@link #instanceMethodTable(Lookup, Linker)}
+     * and the linker of the proxy class is not used.
+     * This option can not be used with {@link #DIRECT_INVOCATION}, {@link #RELINKABLE}, {@link #SINGLETON},
+     * {@link #EAGER_LINKING} or {@link #BACKGROUND_LINKING}.
+     */
+    INSTANCE_METHOD_TABLE,
+
+    /**
+     * Defines a proxy class that can be unloaded once it is not reachable anymore
+     * (no instance, no lookup, no factory), even if the class loader of the lookup class is still reachable.
+     * By default, a proxy class lives as long as the class loader of the lookup class.
+     * A {@link ProxyCache} does not keep its proxy classes reachable.
+     * @see ClassOption#STRONG
+     */
+    UNLOADABLE
+  }
+
   private Proxy() {
     throw new AssertionError();
   }
@@ -57,100 +175,1396 @@ public class Proxy {
    *                       should be overridden or not
    * @param delegateClass the class of the delegate field inside the proxy or void.class if there is no field.
    * @param linker the linker that will resolve the calls to the proxy methods.
+   * @param options the options used to define the proxy class.
+   * @return a new proxy class that implements the interfaces.
+   * @throws IllegalAccessException if this Lookup does not have full privilege access
+   * @throws SecurityException if a security manager is present and it refuses access
+   * @throws NullPointerException if any parameter is null
+   * @throws LinkageError if the option {@link Option#EAGER_LINKING} is set and a method can not be linked
+   * @see #defineProxy(Lookup, Class[], Predicate, List, Linker, Option...)
+   */
+  public static Lookup defineProxy(Lookup lookup, Class<?>[] interfaces, Predicate<Method> shouldOverride, Class<?> delegateClass, Linker linker, Option... options) throws IllegalAccessException {
+    Objects.requireNonNull(delegateClass);
+    return defineProxy(lookup, interfaces, shouldOverride, fieldTypes(delegateClass), linker, options);
+  }
+
+  /**
+   * Defines a proxy class with several fields and returns a lookup on that class.
+   * The constructor of the proxy class takes the values of the fields in order and
+   * the values of the fields are passed to the method handles returned by the linker
+   * after the proxy and before the arguments of the method.
+   *
+   * @param lookup the lookup used to define the proxy class.
+   * @param interfaces the interfaces implemented by the proxy class.
+   * @param shouldOverride a predicate indicating if methods of java.lang.Object or default method
+   *                       should be overridden or not
+   * @param fieldTypes the types of the fields inside the proxy, primitive types or reference types.
+   * @param linker the linker that will resolve the calls to the proxy methods.
+   * @param options the options used to define the proxy class.
    * @return a new proxy class that implements the interfaces.
    * @throws IllegalAccessException if this Lookup does not have full privilege access
    * @throws SecurityException if a security manager is present and it refuses access
    * @throws NullPointerException if any parameter is null
+   * @throws IllegalArgumentException if a field type is void.class
+   * @throws LinkageError if the option {@link Option#EAGER_LINKING} is set and a method can not be linked
    */
-  public static Lookup defineProxy(Lookup lookup, Class<?>[] interfaces, Predicate<Method> shouldOverride, Class<?> delegateClass, Linker linker) throws IllegalAccessException {
+  public static Lookup defineProxy(Lookup lookup, Class<?>[] interfaces, Predicate<Method> shouldOverride, List<Class<?>> fieldTypes, Linker linker, Option... options) throws IllegalAccessException {
+    Objects.requireNonNull(lookup);
+    Objects.requireNonNull(interfaces);
+    Objects.requireNonNull(shouldOverride);
+    Objects.requireNonNull(fieldTypes);
+    Objects.requireNonNull(linker);
+    var layout = Layout.ofFields(checkFieldTypes(fieldTypes));
+    var optionSet = optionSet(options);
+    var methods = proxyMethods(interfaces, shouldOverride, optionSet);
+    return defineProxy(lookup, interfaces, methods, layout, linker, optionSet);
+  }
+
+  /**
+   * Defines a proxy class that delegates to a constant and returns a lookup on that class.
+   * The constant is stored in the class data of the proxy class and not in a field, so the proxy class
+   * has a constructor with no parameter and the JIT can constant fold the delegate.
+   * The constant is passed to the method handles returned by the linker after the proxy and before
+   * the arguments of the method, like the delegate field of
+   * {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   *
+   * @param lookup the lookup used to define the proxy class.
+   * @param interfaces the interfaces implemented by the proxy class.
+   * @param shouldOverride a predicate indicating if methods of java.lang.Object or default method
+   *                       should be overridden or not
+   * @param delegateClass the type of the constant.
+   * @param delegate the constant, an instance of delegateClass or of its wrapper type.
+   * @param linker the linker that will resolve the calls to the proxy methods.
+   * @param options the options used to define the proxy class.
+   * @return a new proxy class that implements the interfaces.
+   * @throws IllegalAccessException if this Lookup does not have full privilege access
+   * @throws SecurityException if a security manager is present and it refuses access
+   * @throws NullPointerException if any parameter except delegate is null
+   * @throws IllegalArgumentException if delegateClass is void.class or delegate is not an instance of delegateClass
+   * @throws LinkageError if the option {@link Option#EAGER_LINKING} is set and a method can not be linked
+   */
+  public static Lookup defineConstantProxy(Lookup lookup, Class<?>[] interfaces, Predicate<Method> shouldOverride, Class<?> delegateClass, Object delegate, Linker linker, Option... options) throws IllegalAccessException {
     Objects.requireNonNull(lookup);
     Objects.requireNonNull(interfaces);
     Objects.requireNonNull(shouldOverride);
     Objects.requireNonNull(delegateClass);
     Objects.requireNonNull(linker);
-    var proxyName = lookup.lookupClass().getPackageName().replace('.', '/') + "/ProxyImpl";
-    var bytecode = generateBytecode(proxyName, interfaces, shouldOverride, delegateClass);
-    return lookup.defineHiddenClassWithClassData(bytecode, linker, true, ClassOption.NESTMATE, ClassOption.STRONG);
+    if (delegateClass == void.class) {
+      throw new IllegalArgumentException("the constant can not be of type void");
+    }
+    var boxedType = MethodType.methodType(delegateClass).wrap().returnType();
+    if (delegateClass.isPrimitive()? !boxedType.isInstance(delegate): delegate != null && !boxedType.isInstance(delegate)) {
+      throw new IllegalArgumentException("the constant " + delegate + " is not an instance of " + delegateClass.getName());
+    }
+    var layout = new Layout(delegateClass, delegate, List.of());
+    var optionSet = optionSet(options);
+    var methods = proxyMethods(interfaces, shouldOverride, optionSet);
+    return defineProxy(lookup, interfaces, methods, layout, linker, optionSet);
+  }
+
+  /**
+   * The values passed to the linked method handles after the proxy, an optional constant
+   * (if constantType is not null) followed by the fields.
+   */
+  record Layout(Class<?> constantType, Object constant, List<Class<?>> fieldTypes) {
+    static Layout ofFields(List<Class<?>> fieldTypes) {
+      return new Layout(null, null, fieldTypes);
+    }
+
+    List<Class<?>> leadingTypes() {
+      if (constantType == null) {
+        return fieldTypes;
+      }
+      var leadingTypes = new ArrayList<Class<?>>();
+      leadingTypes.add(constantType);
+      leadingTypes.addAll(fieldTypes);
+      return leadingTypes;
+    }
+  }
+
+  static List<Class<?>> fieldTypes(Class<?> delegateClass) {
+    return delegateClass == void.class? List.of(): List.of(delegateClass);
+  }
+
+  static List<Class<?>> checkFieldTypes(List<Class<?>> fieldTypes) {
+    fieldTypes = List.copyOf(fieldTypes);
+    if (fieldTypes.contains(void.class)) {
+      throw new IllegalArgumentException("a field can not be of type void");
+    }
+    return fieldTypes;
+  }
+
+  static Set<Option> optionSet(Option... options) {
+    var optionSet = EnumSet.noneOf(Option.class);
+    for(var option: options) {
+      optionSet.add(Objects.requireNonNull(option));
+    }
+    return optionSet;
+  }
+
+  /**
+   * A method that can be implemented by a proxy with all the information needed to generate its bytecode.
+   * @param method the reflective method.
+   * @param descriptor the descriptor of the method.
+   * @param argumentTypes the types of the parameters of the method.
+   * @param returnType the return type of the method.
+   * @param handle a constant method handle on the method, used to pass the method to the bootstrap method.
+   */
+  record MethodEntry(Method method, String descriptor, List<Type> argumentTypes, Type returnType, Handle handle) {
+    static MethodEntry of(Method method) {
+      var descriptor = MethodType.methodType(method.getReturnType(), method.getParameterTypes()).descriptorString();
+      var declaringClass = method.getDeclaringClass();
+      var isInterface = declaringClass.isInterface(); // it can be java/lang/Object
+      var handle = new Handle(isInterface? H_INVOKEINTERFACE: H_INVOKEVIRTUAL, declaringClass.getName().replace('.', '/'), method.getName(), descriptor, isInterface);
+      return new MethodEntry(method, descriptor, List.of(Type.getArgumentTypes(descriptor)), Type.getReturnType(descriptor), handle);
+    }
+
+    String name() {
+      return handle.getName();
+    }
+
+    boolean isOverridable() {
+      return method.getDeclaringClass() == Object.class || method.isDefault();
+    }
   }
 
-  private static byte[] generateBytecode(String proxyName, Class<?>[] interfaces, Predicate<Method> shouldOverride, Class<?> delegateClass) {
-    var interfaceList = List.of(interfaces);
+  /**
+   * The methods that can be implemented by a proxy for each interface (and java.lang.Object),
+   * one per name and descriptor.
+   */
+  private static final ClassValue<MethodEntry[]> METHOD_TABLES = new ClassValue<>() {
+    @Override
+    protected MethodEntry[] computeValue(Class<?> type) {
+      record Key(String name, String descriptor) { }
+      var map = new LinkedHashMap<Key, MethodEntry>();
+      for(var method: type.getMethods()) {
+        if ((method.getModifiers() & (Modifier.FINAL | Modifier.STATIC)) != 0) {
+          continue;
+        }
+        var entry = MethodEntry.of(method);
+        map.putIfAbsent(new Key(method.getName(), entry.descriptor), entry);
+      }
+      return map.values().toArray(MethodEntry[]::new);
+    }
+  };
+
+  /**
+   * Returns the methods that should be implemented by a proxy, one per name and descriptor.
+   * The result only depends on the interfaces, the methods selected by shouldOverride and the options.
+   */
+  static List<MethodEntry> proxyMethods(Class<?>[] interfaces, Predicate<Method> shouldOverride, Set<Option> options) {
+    if (options.contains(Option.VALUE_OBJECT_METHODS)) {
+      shouldOverride = shouldOverride.or(Proxy::isValueObjectMethod);
+    }
+    var objectTable = selectMethods(METHOD_TABLES.get(Object.class), shouldOverride);
+    if (interfaces.length == 1 && objectTable.length == 0) {  // fast path
+      return List.of(selectMethods(METHOD_TABLES.get(interfaces[0]), shouldOverride));
+    }
     record Key(String name, String descriptor) { }
-    var map = new LinkedHashMap<Key, Method>();
-    Stream.concat(Stream.of(Object.class), interfaceList.stream())
-        .flatMap(type -> Arrays.stream(type.getMethods()))
-        .filter(m -> (m.getModifiers() & (Modifier.FINAL | Modifier.STATIC)) == 0)
-        .filter(m -> (m.getDeclaringClass() != Object.class && !m.isDefault()) || shouldOverride.test(m))
-        .forEach(m -> map.putIfAbsent(new Key(m.getName(), MethodType.methodType(m.getReturnType(), m.getParameterTypes()).descriptorString()), m));
+    var map = new LinkedHashMap<Key, MethodEntry>();
+    for(var entry: objectTable) {
+      map.put(new Key(entry.name(), entry.descriptor), entry);
+    }
+    for(var type: interfaces) {
+      for(var entry: selectMethods(METHOD_TABLES.get(type), shouldOverride)) {
+        map.putIfAbsent(new Key(entry.name(), entry.descriptor), entry);
+      }
+    }
+    return List.copyOf(map.values());
+  }
+
+  private static boolean isValueObjectMethod(Method method) {
+    return method.getDeclaringClass() == Object.class &&
+        switch(method.getName()) {
+          case "equals", "hashCode", "toString" -> true;
+          default -> false;
+        };
+  }
+
+  private static MethodEntry[] selectMethods(MethodEntry[] table, Predicate<Method> shouldOverride) {
+    var selected = new MethodEntry[table.length];
+    var length = 0;
+    for(var entry: table) {
+      if (!entry.isOverridable() || shouldOverride.test(entry.method)) {
+        selected[length++] = entry;
+      }
+    }
+    return length == table.length? table: Arrays.copyOf(selected, length);
+  }
+
+  static Lookup defineProxy(Lookup lookup, Class<?>[] interfaces, List<MethodEntry> methods, Layout layout, Linker linker, Set<Option> options) throws IllegalAccessException {
+    var proxyName = lookup.lookupClass().getPackageName().replace('.', '/') + "/ProxyImpl";
+    var declaringClassReceiver = options.contains(Option.DECLARING_CLASS_RECEIVER);
+    var relinkable = options.contains(Option.RELINKABLE);
+    if (relinkable && options.contains(Option.DIRECT_INVOCATION)) {
+      throw new IllegalArgumentException("options RELINKABLE and DIRECT_INVOCATION are mutually exclusive");
+    }
+    if (options.contains(Option.SINGLETON) && !layout.fieldTypes.isEmpty()) {
+      throw new IllegalArgumentException("option SINGLETON requires a proxy without field");
+    }
+    var instanceTable = options.contains(Option.INSTANCE_METHOD_TABLE);
+    if (options.contains(Option.INVOKEDYNAMIC_PER_METHOD) && (instanceTable || options.contains(Option.METHOD_TABLE))) {
+      throw new IllegalArgumentException("option INVOKEDYNAMIC_PER_METHOD can not be used with METHOD_TABLE or INSTANCE_METHOD_TABLE");
+    }
+    if (instanceTable && (relinkable || options.contains(Option.DIRECT_INVOCATION) || options.contains(Option.SINGLETON) ||
+        options.contains(Option.EAGER_LINKING) || options.contains(Option.BACKGROUND_LINKING))) {
+      throw new IllegalArgumentException("option INSTANCE_METHOD_TABLE can not be used with RELINKABLE, DIRECT_INVOCATION, SINGLETON, EAGER_LINKING or BACKGROUND_LINKING");
+    }
+    var leadingTypes = layout.leadingTypes();
+    var valueFieldTypes = options.contains(Option.VALUE_OBJECT_METHODS)? layout.fieldTypes: null;
+    var classData = new ClassData(linker, methods, interfaces, declaringClassReceiver, leadingTypes, layout.constant, valueFieldTypes, relinkable, instanceTable);
+    byte[] bytecode;
+    if (options.contains(Option.DIRECT_INVOCATION)) {
+      var directCalls = new DirectCall[methods.size()];
+      for(var i = 0; i < directCalls.length; i++) {
+        var method = methods.get(i).method;
+        if (classData.isValueObjectMethod(i)) {
+          continue;  // linked once the proxy class is defined
+        }
+        var callSiteType = classData.callSiteType(i);
+        try {
+          var info = lookup.revealDirect(lookup.unreflect(method));
+          var target = resolve(linker, info);
+          var directCall = DirectCall.of(lookup, target, callSiteType, 1 + leadingTypes.size());
+          if (directCall != null) {  // keep the target linked in case the proxy is pre-linked
+            var directTarget = target;
+            target = directCall.adapt(target, callSiteType, 1 + leadingTypes.size());
+            if (!DirectCall.isVisible(lookup, directTarget)) {
+              directCall = null;  // the proxy class can not resolve the classes of the call, use an invokedynamic
+            }
+          }
+          directCalls[i] = directCall;
+          classData.linked(i, asCallSiteType(linker, info, target, callSiteType));
+        } catch(RuntimeException | Error e) {
+          throw e;
+        } catch (Throwable e) {
+          throw linkageError(linker, method, e);
+        }
+      }
+      var methodTable = useMethodTable(options, (int) Arrays.stream(directCalls).filter(Objects::isNull).count());
+      bytecode = generateBytecode(proxyName, interfaces, methods, declaringClassReceiver, layout, methodTable, false, directCalls);
+    } else {
+      var methodTable = instanceTable || useMethodTable(options, methods.size());
+      bytecode = bytecodeTemplate(proxyName, interfaces, methods, declaringClassReceiver, layout, methodTable, instanceTable);
+    }
+    var classOptions = options.contains(Option.UNLOADABLE)?
+        new ClassOption[] { ClassOption.NESTMATE }:
+        new ClassOption[] { ClassOption.NESTMATE, ClassOption.STRONG };
+    var proxyLookup = lookup.defineHiddenClassWithClassData(bytecode, classData, true, classOptions);
+    classData.proxyLookup = proxyLookup;
+    if (options.contains(Option.SINGLETON)) {
+      classData.singleton = newInstance(proxyLookup);
+    }
+    if (options.contains(Option.EAGER_LINKING)) {
+      for(var i = 0; i < methods.size(); i++) {
+        classData.checkedTarget(proxyLookup, i);
+      }
+    } else if (options.contains(Option.BACKGROUND_LINKING)) {
+      classData.prelink(proxyLookup, DefaultExecutorHolder.EXECUTOR);
+    }
+    return proxyLookup;
+  }
+
+  /**
+   * Number of methods called through an invokedynamic above which a proxy class uses a method table.
+   * Above this threshold, the memory and the time spent to bootstrap one call site per method
+   * outweigh the inlining of the calls, {@link Option#INVOKEDYNAMIC_PER_METHOD} keeps the inlining.
+   */
+  private static final int METHOD_TABLE_THRESHOLD = Integer.getInteger("com.github.forax.proxy.methodTableThreshold", 64);
+
+  private static boolean useMethodTable(Set<Option> options, int indyCount) {
+    if (options.contains(Option.INVOKEDYNAMIC_PER_METHOD)) {
+      return false;
+    }
+    return options.contains(Option.METHOD_TABLE) || indyCount > METHOD_TABLE_THRESHOLD;
+  }
+
+  private static LinkageError linkageError(Linker linker, Method method, Throwable cause) {
+    return new LinkageError("error for linker " + linker.getClass().getSimpleName() + " while trying to link proxy method " + method, cause);
+  }
+
+  /**
+   * Schedules the linking of all the methods of a proxy class on an executor.
+   * A method called before the end of its linking waits for the result instead of being linked twice.
+   *
+   * @param proxyLookup a lookup on the proxy class returned by
+   *                    {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   * @param executor the executor used to call the linker.
+   * @return a future completed when all the methods are linked, or completed exceptionally
+   *         if the linker fails to link a method.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   * @throws IllegalArgumentException if the lookup class is not a proxy class
+   * @throws IllegalStateException if the proxy class was defined with the option {@link Option#INSTANCE_METHOD_TABLE}
+   * @throws NullPointerException if any parameter is null
+   */
+  public static CompletableFuture<Void> prelink(Lookup proxyLookup, Executor executor) throws IllegalAccessException {
+    Objects.requireNonNull(proxyLookup);
+    Objects.requireNonNull(executor);
+    var classData = classData(proxyLookup);
+    if (classData.instanceTable) {
+      throw new IllegalStateException(proxyLookup.lookupClass() + " uses instance method tables, its linker is not used");
+    }
+    return classData.prelink(proxyLookup, executor);
+  }
+
+  /**
+   * Calls the linker again for all the methods of a proxy class defined with the option
+   * {@link Option#RELINKABLE} and installs the new method handles.
+   * All the instances of the proxy class use the new method handles.
+   *
+   * @param proxyLookup a lookup on the proxy class returned by
+   *                    {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   * @throws IllegalArgumentException if the lookup class is not a proxy class
+   * @throws IllegalStateException if the proxy class was not defined with the option {@link Option#RELINKABLE}
+   * @throws NullPointerException if the lookup is null
+   * @throws LinkageError if a method can not be linked
+   * @see #relink(Lookup, Predicate)
+   */
+  public static void relink(Lookup proxyLookup) throws IllegalAccessException {
+    relink(proxyLookup, __ -> true);
+  }
+
+  /**
+   * Calls the linker again for the methods of a proxy class defined with the option
+   * {@link Option#RELINKABLE} selected by a predicate and installs the new method handles.
+   * All the instances of the proxy class use the new method handles.
+   * The methods already linked are linked again immediately, the others will be linked
+   * the first time they are called.
+   *
+   * @param proxyLookup a lookup on the proxy class returned by
+   *                    {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   * @param shouldRelink a predicate indicating if a method should be linked again or not.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   * @throws IllegalArgumentException if the lookup class is not a proxy class
+   * @throws IllegalStateException if the proxy class was not defined with the option {@link Option#RELINKABLE}
+   * @throws NullPointerException if any parameter is null
+   * @throws LinkageError if a method can not be linked
+   */
+  public static void relink(Lookup proxyLookup, Predicate<Method> shouldRelink) throws IllegalAccessException {
+    Objects.requireNonNull(proxyLookup);
+    Objects.requireNonNull(shouldRelink);
+    var classData = classData(proxyLookup);
+    if (!classData.relinkable) {
+      throw new IllegalStateException(proxyLookup.lookupClass() + " is not relinkable");
+    }
+    classData.relink(proxyLookup, shouldRelink);
+  }
+
+  /**
+   * Defines a proxy class that implements several interfaces by delegating each interface to its own field.
+   * The proxy class has one field per interface, in the order of the interfaces, and its constructor takes
+   * the delegates in the same order.
+   * Each abstract or default method is forwarded to the field of the first interface that declares or inherits it,
+   * with a direct call, the proxy class is defined with the option {@link Option#DIRECT_INVOCATION}.
+   * The methods of java.lang.Object are not overridden unless the option {@link Option#VALUE_OBJECT_METHODS} is set.
+   *
+   * @param lookup the lookup used to define the proxy class.
+   * @param interfaces the interfaces implemented by the proxy class.
+   * @param options the options used to define the proxy class.
+   * @return a lookup on a proxy class that implements the interfaces.
+   * @throws IllegalAccessException if this Lookup does not have full privilege access
+   * @throws IllegalArgumentException if a class is not an interface or an interface is a sub-interface of another one
+   * @throws NullPointerException if any parameter is null
+   */
+  public static Lookup defineMixin(Lookup lookup, Class<?>[] interfaces, Option... options) throws IllegalAccessException {
+    Objects.requireNonNull(lookup);
+    Objects.requireNonNull(interfaces);
+    var fieldTypes = List.<Class<?>>of(interfaces);
+    for(var type: fieldTypes) {
+      if (!type.isInterface()) {
+        throw new IllegalArgumentException(type.getName() + " is not an interface");
+      }
+      for(var other: fieldTypes) {
+        if (other != type && type.isAssignableFrom(other)) {
+          throw new IllegalArgumentException(other.getName() + " is a sub-interface of " + type.getName());
+        }
+      }
+    }
+    Linker linker = methodInfo -> {
+      // the receiver type of the target selects the field
+      var declaringClass = methodInfo.getDeclaringClass();
+      for(var type: interfaces) {
+        if (declaringClass.isAssignableFrom(type)) {
+          return lookup.findVirtual(type, methodInfo.getName(), methodInfo.getMethodType());
+        }
+      }
+      throw new AssertionError("no interface for " + methodInfo);
+    };
+    var optionSet = optionSet(options);
+    optionSet.add(Option.DIRECT_INVOCATION);
+    var methods = proxyMethods(interfaces, Method::isDefault, optionSet);
+    return defineProxy(lookup, interfaces, methods, Layout.ofFields(fieldTypes), linker, optionSet);
+  }
+
+  /**
+   * Defines a factory that creates the instances of a proxy class.
+   * The factory is an instance of a functional interface, its abstract method takes the values
+   * of the fields of the proxy class as parameters and returns a new instance of the proxy class.
+   * Unlike calling the constructor of the proxy class with {@link MethodHandle#invoke(Object...)},
+   * the factory does no boxing, creating a proxy with the factory is as cheap as a {@code new}.
+   * If the proxy class was defined with the option {@link Option#SINGLETON}, the factory
+   * returns the canonical instance of the proxy class instead.
+   *
+   * @param proxyLookup a lookup on the proxy class returned by
+   *                    {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   * @param factoryInterface a functional interface, the parameter types of its abstract method must be
+   *                         convertible to the types of the fields of the proxy class and its return type
+   *                         must be a super type of the proxy class.
+   * @param <F> the type of the factory.
+   * @return a factory that creates the instances of the proxy class.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   * @throws IllegalArgumentException if the lookup class is not a proxy class, if factoryInterface
+   *         is not a functional interface or if its abstract method is not compatible with the constructor
+   *         of the proxy class
+   * @throws NullPointerException if any parameter is null
+   */
+  public static <F> F defineFactory(Lookup proxyLookup, Class<F> factoryInterface) throws IllegalAccessException {
+    Objects.requireNonNull(proxyLookup);
+    Objects.requireNonNull(factoryInterface);
+    var classData = classData(proxyLookup);
+    var proxyClass = proxyLookup.lookupClass();
+    var methods = functionalMethods(factoryInterface);
+    var constructor = classData.singleton != null?
+        MethodHandles.constant(proxyClass, classData.singleton):
+        proxyLookup.unreflectConstructor(proxyClass.getDeclaredConstructors()[0]);
+    var targets = new ArrayList<MethodHandle>();
+    for(var method: methods) {
+      if (!method.getReturnType().isAssignableFrom(proxyClass)) {
+        throw new IllegalArgumentException("the return type of " + method + " is not a super type of the proxy class");
+      }
+      try {
+        targets.add(constructor.asType(MethodType.methodType(method.getReturnType(), method.getParameterTypes())));
+      } catch(WrongMethodTypeException e) {
+        throw new IllegalArgumentException(method + " is not compatible with the constructor " + constructor.type(), e);
+      }
+    }
+    var factoryName = proxyClass.getPackageName().replace('.', '/') + "/ProxyFactory";
+    var bytecode = generateFactoryBytecode(factoryName, factoryInterface, methods);
+    var factoryLookup = proxyLookup.defineHiddenClassWithClassData(bytecode, List.copyOf(targets), true);
+    return factoryInterface.cast(newInstance(factoryLookup));
+  }
+
+  private static List<Method> functionalMethods(Class<?> factoryInterface) {
+    if (!factoryInterface.isInterface()) {
+      throw new IllegalArgumentException(factoryInterface.getName() + " is not an interface");
+    }
+    // group the abstract methods by name and parameter types, the methods of a group only differ by their return type
+    var map = new LinkedHashMap<String, List<Method>>();
+    for(var method: factoryInterface.getMethods()) {
+      if (!Modifier.isAbstract(method.getModifiers()) || isObjectMethod(method)) {
+        continue;
+      }
+      var key = method.getName() + MethodType.methodType(void.class, method.getParameterTypes()).descriptorString();
+      map.computeIfAbsent(key, __ -> new ArrayList<>()).add(method);
+    }
+    if (map.size() != 1) {
+      throw new IllegalArgumentException(factoryInterface.getName() + " is not a functional interface");
+    }
+    return map.values().iterator().next();
+  }
+
+  private static boolean isObjectMethod(Method method) {
+    try {
+      Object.class.getMethod(method.getName(), method.getParameterTypes());
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the canonical instance of a proxy class defined with the option {@link Option#SINGLETON}.
+   *
+   * @param proxyLookup a lookup on the proxy class returned by
+   *                    {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   * @param type the type of the instance, usually one of the interfaces of the proxy class.
+   * @param <T> the type of the instance.
+   * @return the canonical instance of the proxy class.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   * @throws IllegalArgumentException if the lookup class is not a proxy class
+   * @throws IllegalStateException if the proxy class was not defined with the option {@link Option#SINGLETON}
+   * @throws ClassCastException if the instance is not an instance of the type
+   * @throws NullPointerException if any parameter is null
+   */
+  public static <T> T singleton(Lookup proxyLookup, Class<T> type) throws IllegalAccessException {
+    Objects.requireNonNull(proxyLookup);
+    Objects.requireNonNull(type);
+    var singleton = classData(proxyLookup).singleton;
+    if (singleton == null) {
+      throw new IllegalStateException(proxyLookup.lookupClass() + " is not a singleton");
+    }
+    return type.cast(singleton);
+  }
+
+  /**
+   * An immutable table of method handles shared by the instances of a proxy class defined with the option
+   * {@link Option#INSTANCE_METHOD_TABLE}, the method handles are not accessible.
+   * A method table can only be used to create instances of the proxy class it was created for.
+   *
+   * @see #instanceMethodTable(Lookup, Linker)
+   */
+  public static final class MethodTable {
+    private final Class<?> proxyClass;
+    private final MethodHandle[] methodHandles;
+
+    private MethodTable(Class<?> proxyClass, MethodHandle[] methodHandles) {
+      this.proxyClass = proxyClass;
+      this.methodHandles = methodHandles;
+    }
+
+    @Override
+    public String toString() {
+      return "MethodTable of " + proxyClass.getName();
+    }
+  }
+
+  /**
+   * Returns a method table for the instances of a proxy class defined with the option
+   * {@link Option#INSTANCE_METHOD_TABLE}, the method handles of the table are provided by the linker.
+   * Each call creates a new method table that is not retained by the proxy class, the instances
+   * that share the same behavior should be created with the same method table.
+   * The constructor of the proxy class throws an {@link IllegalArgumentException}
+   * if the method table was created for another proxy class.
+   *
+   * @param proxyLookup a lookup on the proxy class returned by
+   *                    {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   * @param linker the linker that resolves the method handles of the method table.
+   * @return a method table to pass to the constructor of the proxy class.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   * @throws IllegalArgumentException if the lookup class is not a proxy class
+   * @throws IllegalStateException if the proxy class was not defined with the option {@link Option#INSTANCE_METHOD_TABLE}
+   * @throws NullPointerException if any parameter is null
+   * @throws LinkageError if a method can not be linked
+   */
+  public static MethodTable instanceMethodTable(Lookup proxyLookup, Linker linker) throws IllegalAccessException {
+    Objects.requireNonNull(proxyLookup);
+    Objects.requireNonNull(linker);
+    var classData = classData(proxyLookup);
+    if (!classData.instanceTable) {
+      throw new IllegalStateException(proxyLookup.lookupClass() + " does not use instance method tables");
+    }
+    return classData.instanceTable(proxyLookup, linker);
+  }
+
+  /**
+   * Returns true if the method table of a proxy class has been created, used by the tests.
+   */
+  static boolean hasMethodTable(Lookup proxyLookup) throws IllegalAccessException {
+    var classData = classData(proxyLookup);
+    synchronized(classData) {
+      return classData.table != null;
+    }
+  }
+
+  private static Object newInstance(Lookup lookup) throws IllegalAccessException {
+    try {
+      return lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+    } catch (RuntimeException | Error | IllegalAccessException e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);  // the constructor does not throw
+    }
+  }
+
+  private static ClassData classData(Lookup proxyLookup) throws IllegalAccessException {
+    if (!(MethodHandles.classData(proxyLookup, "_", Object.class) instanceof ClassData classData)) {
+      throw new IllegalArgumentException(proxyLookup.lookupClass() + " is not a proxy class");
+    }
+    return classData;
+  }
+
+  /**
+   * The default executor used to link methods in the background,
+   * a thread per task, threads are daemons and reused when idle.
+   */
+  private static final class DefaultExecutorHolder {
+    private static final Executor EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+      var thread = new Thread(runnable, "proxy-linker");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * The class data of a proxy class.
+   * The linkages are the method handles linked or being linked, indexed by the index of the method in the proxy class.
+   * If the proxy class is relinkable, the call sites are the mutable call sites already bootstrapped.
+   * The linker is never called while holding the lock of the class data, the lock only guards
+   * the publication of the targets in the call sites and in the method table.
+   */
+  private static final class ClassData {
+    private final Linker linker;
+    private final List<MethodEntry> methods;
+    private final Class<?>[] interfaces;
+    private final boolean declaringClassReceiver;
+    private final List<Class<?>> leadingTypes;
+    private final Object constant;
+    private final List<Class<?>> valueFieldTypes;  // null if the option VALUE_OBJECT_METHODS is not set
+    private final boolean relinkable;
+    private final boolean instanceTable;
+    private final AtomicReferenceArray<CompletableFuture<MethodHandle>> linkages;
+    private final MutableCallSite[] callSites;  // guarded by this
+    private final Object relinkLock = new Object();
+    private MethodHandle[] table;  // guarded by this
+    private MethodHandle[] stubs;  // guarded by this
+    private volatile Object singleton;
+    private Lookup proxyLookup;  // keeps the lookup reachable as long as the proxy class, see ProxyCache
+
+    private ClassData(Linker linker, List<MethodEntry> methods, Class<?>[] interfaces, boolean declaringClassReceiver, List<Class<?>> leadingTypes, Object constant, List<Class<?>> valueFieldTypes, boolean relinkable, boolean instanceTable) {
+      this.linker = linker;
+      this.methods = methods;
+      this.interfaces = interfaces;
+      this.declaringClassReceiver = declaringClassReceiver;
+      this.leadingTypes = leadingTypes;
+      this.constant = constant;
+      this.valueFieldTypes = valueFieldTypes;
+      this.relinkable = relinkable;
+      this.instanceTable = instanceTable;
+      this.linkages = new AtomicReferenceArray<>(methods.size());
+      this.callSites = relinkable? new MutableCallSite[methods.size()]: null;
+    }
+
+    private MethodType callSiteType(int index) {
+      var method = methods.get(index).method;
+      var methodType = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+      return methodType.insertParameterTypes(0, leadingTypes).insertParameterTypes(0, receiverType(interfaces, method, declaringClassReceiver));
+    }
+
+    private void linked(int index, MethodHandle target) {
+      linkages.set(index, CompletableFuture.completedFuture(target));
+    }
+
+    /**
+     * Returns the target of the method at index, either by calling the linker or by waiting
+     * for the result of another thread that is already calling the linker.
+     */
+    private MethodHandle target(Lookup proxyLookup, int index) throws Throwable {
+      var linkage = linkages.get(index);
+      if (linkage == null) {
+        var newLinkage = new CompletableFuture<MethodHandle>();
+        linkage = linkages.compareAndExchange(index, null, newLinkage);
+        if (linkage == null) {
+          linkage = newLinkage;
+          try {
+            newLinkage.complete(link(proxyLookup, linker, index));
+          } catch(Throwable e) {
+            newLinkage.completeExceptionally(e);
+          }
+        }
+      }
+      try {
+        return linkage.join();
+      } catch(CompletionException e) {
+        throw e.getCause();
+      }
+    }
+
+    /**
+     * Calls the linker to get the target of the method at index, the value object methods
+     * are implemented by the class data and not by the linker.
+     */
+    private MethodHandle link(Lookup proxyLookup, Linker linker, int index) throws Throwable {
+      if (isValueObjectMethod(index)) {
+        return valueObjectMethod(proxyLookup, index);
+      }
+      var info = proxyLookup.revealDirect(proxyLookup.unreflect(methods.get(index).method));
+      return asCallSiteType(linker, info, resolve(linker, info), callSiteType(index));
+    }
+
+    /**
+     * Returns true if the target is the current linkage of the method at index,
+     * false if the method was relinked since the target was linked.
+     */
+    private boolean isCurrentTarget(int index, MethodHandle target) {
+      var linkage = linkages.get(index);
+      return linkage != null && linkage.isDone() && !linkage.isCompletedExceptionally() && linkage.join() == target;
+    }
+
+    private boolean isValueObjectMethod(int index) {
+      return valueFieldTypes != null && Proxy.isValueObjectMethod(methods.get(index).method);
+    }
+
+    /**
+     * Returns the implementation of equals, hashCode or toString using the values of the fields.
+     */
+    private MethodHandle valueObjectMethod(Lookup proxyLookup, int index) throws Throwable {
+      var proxyClass = proxyLookup.lookupClass();
+      var getters = new MethodHandle[valueFieldTypes.size()];
+      var names = new StringJoiner(";");
+      for(var i = 0; i < getters.length; i++) {
+        getters[i] = proxyLookup.findGetter(proxyClass, fieldName(i), valueFieldTypes.get(i));
+        names.add(fieldName(i));
+      }
+      var name = methods.get(index).name();
+      var target = (MethodHandle) ObjectMethods.bootstrap(proxyLookup, name, MethodHandle.class, proxyClass, names.toString(), getters);
+      return MethodHandles.dropArguments(target, 1, leadingTypes).asType(callSiteType(index));
+    }
+
+    /**
+     * Returns the target of the method at index like {@link #target(Lookup, int)}
+     * but wraps the checked exceptions into a {@link LinkageError}.
+     */
+    private MethodHandle checkedTarget(Lookup proxyLookup, int index) {
+      try {
+        return target(proxyLookup, index);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw linkageError(linker, methods.get(index).method, e);
+      }
+    }
+
+    private static final MethodHandle LINK_SLOT;
+    static {
+      try {
+        LINK_SLOT = MethodHandles.lookup().findVirtual(ClassData.class, "linkSlot",
+            MethodType.methodType(MethodHandle.class, MethodHandle[].class, Lookup.class, int.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    /**
+     * Returns the method table of the proxy class, the slots that are not linked yet contain a stub
+     * that links the method, replaces itself in the table by the target and calls it.
+     * The table is created once, the constant dynamic may be resolved by several threads
+     * but they must all see the same table.
+     */
+    private synchronized MethodHandle[] methodTable(Lookup proxyLookup) {
+      if (table != null) {
+        return table;
+      }
+      var table = new MethodHandle[methods.size()];
+      var stubs = new MethodHandle[methods.size()];
+      for(var i = 0; i < table.length; i++) {
+        var linkage = linkages.get(i);
+        if (linkage != null && linkage.isDone() && !linkage.isCompletedExceptionally()) {
+          table[i] = linkage.join();
+          continue;
+        }
+        var linkSlot = MethodHandles.insertArguments(LINK_SLOT, 0, this, table, proxyLookup, i);
+        stubs[i] = table[i] = MethodHandles.foldArguments(MethodHandles.exactInvoker(callSiteType(i)), linkSlot);
+      }
+      this.table = table;
+      this.stubs = stubs;
+      return table;
+    }
+
+    /**
+     * Returns the call site of the method at index, a mutable call site is only published if its target
+     * is still the current linkage, so a bootstrap that finishes after a concurrent relink does not
+     * install the old target.
+     */
+    private CallSite callSite(Lookup proxyLookup, int index) throws Throwable {
+      var target = target(proxyLookup, index);
+      if (!relinkable) {
+        return new ConstantCallSite(target);
+      }
+      for(;;) {
+        synchronized(this) {
+          var callSite = callSites[index];
+          if (callSite != null) {
+            return callSite;
+          }
+          if (isCurrentTarget(index, target)) {
+            callSite = new MutableCallSite(target);
+            callSites[index] = callSite;
+            return callSite;
+          }
+        }
+        // relinked in between, link again
+        target = target(proxyLookup, index);
+      }
+    }
+
+    /**
+     * Returns true if the method at index has a bootstrapped call site or a linked slot in the method table.
+     */
+    private synchronized boolean isLinked(int index) {
+      return callSites[index] != null || (table != null && table[index] != stubs[index]);
+    }
+
+    /**
+     * Links again the selected methods, the linker is called without holding the lock for the methods
+     * already linked, then the new targets are published under the lock.
+     * If a method is linked in between, its new target is resolved and the publication is retried.
+     * The methods not linked are linked the first time they are called.
+     */
+    private void relink(Lookup proxyLookup, Predicate<Method> shouldRelink) {
+      var selected = new boolean[methods.size()];
+      for(var i = 0; i < selected.length; i++) {
+        selected[i] = shouldRelink.test(methods.get(i).method);
+      }
+      synchronized(relinkLock) {  // two relinks are not interleaved
+        var targets = new MethodHandle[methods.size()];
+        for(;;) {
+          for(var i = 0; i < targets.length; i++) {
+            if (selected[i] && targets[i] == null && isLinked(i)) {
+              targets[i] = checkedLink(proxyLookup, linker, i);
+            }
+          }
+          if (publish(selected, targets)) {
+            return;
+          }
+          // a method was linked in between, link it too
+        }
+      }
+    }
+
+    private MethodHandle checkedLink(Lookup proxyLookup, Linker linker, int index) {
+      try {
+        return link(proxyLookup, linker, index);
+      } catch(RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw linkageError(linker, methods.get(index).method, e);
+      }
+    }
+
+    /**
+     * Publishes the new targets of the selected methods, returns false without publishing anything
+     * if a selected method was linked since its target was resolved.
+     */
+    private synchronized boolean publish(boolean[] selected, MethodHandle[] targets) {
+      for(var i = 0; i < targets.length; i++) {
+        if (selected[i] && targets[i] == null && isLinked(i)) {
+          return false;
+        }
+      }
+      var mutableCallSites = new ArrayList<MutableCallSite>();
+      for(var i = 0; i < targets.length; i++) {
+        if (!selected[i]) {
+          continue;
+        }
+        var target = targets[i];
+        if (target == null) {  // not linked, a pending linkage will be linked again
+          linkages.set(i, null);
+          continue;
+        }
+        linked(i, target);
+        var callSite = callSites[i];
+        if (callSite != null) {
+          callSite.setTarget(target);
+          mutableCallSites.add(callSite);
+        }
+        if (table != null && table[i] != stubs[i]) {  // a stub links the new target when called
+          table[i] = target;
+        }
+      }
+      MutableCallSite.syncAll(mutableCallSites.toArray(MutableCallSite[]::new));
+      return true;
+    }
+
+    private MethodTable instanceTable(Lookup proxyLookup, Linker linker) {
+      var table = new MethodHandle[methods.size()];
+      for(var i = 0; i < table.length; i++) {
+        table[i] = checkedLink(proxyLookup, linker, i);
+      }
+      return new MethodTable(proxyLookup.lookupClass(), table);
+    }
+
+    /**
+     * Links the slot at index of the method table, the target is only installed if it is still
+     * the current linkage, so a stub that finishes after a concurrent relink does not override the new target.
+     */
+    private MethodHandle linkSlot(MethodHandle[] table, Lookup proxyLookup, int index) {
+      for(;;) {
+        var target = checkedTarget(proxyLookup, index);
+        synchronized(this) {
+          if (isCurrentTarget(index, target)) {
+            if (table[index] == stubs[index]) {
+              table[index] = target;
+            }
+            return target;
+          }
+        }
+        // relinked in between, link again
+      }
+    }
+
+    private CompletableFuture<Void> prelink(Lookup proxyLookup, Executor executor) {
+      var futures = new CompletableFuture<?>[methods.size()];
+      for(var i = 0; i < futures.length; i++) {
+        var index = i;
+        futures[i] = CompletableFuture.runAsync(() -> {
+          try {
+            target(proxyLookup, index);
+          } catch(Throwable e) {
+            throw new CompletionException(e);
+          }
+        }, executor);
+      }
+      return CompletableFuture.allOf(futures);
+    }
+  }
+
+  /**
+   * The shape of a proxy class, the generated bytecode only depends on the shape and not on the linker.
+   * A shape only references classes by name, so the bytecode can be shared between classes of the same
+   * name loaded by different class loaders without keeping those classes alive.
+   */
+  private record Shape(String proxyName, List<String> interfaceNames, List<Handle> methodHandles, boolean declaringClassReceiver, String constantDescriptor, List<String> fieldDescriptors, boolean methodTable, boolean instanceTable) {
+    static Shape of(String proxyName, Class<?>[] interfaces, List<MethodEntry> methods, boolean declaringClassReceiver, Layout layout, boolean methodTable, boolean instanceTable) {
+      var interfaceNames = new String[interfaces.length];
+      for(var i = 0; i < interfaces.length; i++) {
+        interfaceNames[i] = interfaces[i].getName();
+      }
+      var methodHandles = new Handle[methods.size()];
+      for(var i = 0; i < methodHandles.length; i++) {
+        methodHandles[i] = methods.get(i).handle;
+      }
+      var fieldTypes = layout.fieldTypes;
+      var fieldDescriptors = new String[fieldTypes.size()];
+      for(var i = 0; i < fieldDescriptors.length; i++) {
+        fieldDescriptors[i] = fieldTypes.get(i).descriptorString();
+      }
+      var constantDescriptor = layout.constantType == null? "": layout.constantType.descriptorString();
+      return new Shape(proxyName, List.of(interfaceNames), List.of(methodHandles), declaringClassReceiver, constantDescriptor, List.of(fieldDescriptors), methodTable, instanceTable);
+    }
+  }
+
+  /**
+   * Maximum number of bytecode templates stored on a class, the least recently used template is dropped
+   * when a new shape is generated, so an interface of the JDK that lives as long as the VM does not
+   * retain the templates of all the shapes ever generated.
+   */
+  static final int MAX_BYTECODE_TEMPLATES = 8;
+
+  /**
+   * Generated bytecodes indexed by shape, stored on the first interface (or java.lang.Object)
+   * so the templates are reclaimed with the class loader of that interface.
+   * The templates of a class are kept in access order and guarded by the map.
+   */
+  private static final ClassValue<LinkedHashMap<Shape, byte[]>> BYTECODE_TEMPLATES = new ClassValue<>() {
+    @Override
+    protected LinkedHashMap<Shape, byte[]> computeValue(Class<?> type) {
+      return new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Shape, byte[]> eldest) {
+          return size() > MAX_BYTECODE_TEMPLATES;
+        }
+      };
+    }
+  };
+
+  /**
+   * Returns the number of bytecode templates stored on a class, used by the tests.
+   */
+  static int bytecodeTemplateCount(Class<?> type) {
+    var templates = BYTECODE_TEMPLATES.get(type);
+    synchronized(templates) {
+      return templates.size();
+    }
+  }
+
+  private static byte[] bytecodeTemplate(String proxyName, Class<?>[] interfaces, List<MethodEntry> methods, boolean declaringClassReceiver, Layout layout, boolean methodTable, boolean instanceTable) {
+    var shape = Shape.of(proxyName, interfaces, methods, declaringClassReceiver, layout, methodTable, instanceTable);
+    var templates = BYTECODE_TEMPLATES.get(interfaces.length == 0? Object.class: interfaces[0]);
+    synchronized(templates) {
+      var bytecode = templates.get(shape);
+      if (bytecode != null) {
+        return bytecode;
+      }
+    }
+    // generated outside of the lock, if two threads generate the same shape, the first template wins
+    var bytecode = generateBytecode(proxyName, interfaces, methods, declaringClassReceiver, layout, methodTable, instanceTable, new DirectCall[methods.size()]);
+    synchronized(templates) {
+      var template = templates.putIfAbsent(shape, bytecode);
+      return template != null? template: bytecode;
+    }
+  }
+
+  /**
+   * A call to a direct method handle, the first dropped arguments of the call site are ignored.
+   */
+  private record DirectCall(int opcode, String owner, String name, String descriptor, boolean isInterface, int dropped, int kept) {
+    /**
+     * Returns a direct call if the target is a direct method handle, the proxy class can call its method
+     * directly and the call site type only differs from the target type by some of its leading parameters
+     * (the proxy, the constant and the fields), returns null otherwise.
+     * The leading parameters passed to the target are consecutive, the last ones are preferred.
+     */
+    static DirectCall of(Lookup lookup, MethodHandle target, MethodType callSiteType, int leading) {
+      MethodHandleInfo info;
+      try {
+        info = lookup.revealDirect(target);
+      } catch(IllegalArgumentException e) {
+        return null;  // not a direct method handle
+      }
+      var opcode = switch(info.getReferenceKind()) {
+        case MethodHandleInfo.REF_invokeStatic -> INVOKESTATIC;
+        case MethodHandleInfo.REF_invokeVirtual -> INVOKEVIRTUAL;
+        case MethodHandleInfo.REF_invokeInterface -> INVOKEINTERFACE;
+        default -> -1;
+      };
+      var declaringClass = info.getDeclaringClass();
+      if (opcode == -1 || declaringClass.isHidden() || !isAccessible(lookup, declaringClass, info.getModifiers())) {
+        return null;
+      }
+      var targetType = target.type();
+      var kept = targetType.parameterCount() - (callSiteType.parameterCount() - leading);
+      if (kept < 0 || kept > leading ||
+          !isAssignable(callSiteType.returnType(), targetType.returnType())) {
+        return null;
+      }
+      for(var dropped = leading - kept; dropped >= 0; dropped--) {
+        if (isAssignable(targetType, callSiteType, leading, dropped, kept)) {
+          return new DirectCall(opcode, declaringClass.getName().replace('.', '/'), info.getName(),
+              info.getMethodType().descriptorString(), declaringClass.isInterface(), dropped, kept);
+        }
+      }
+      return null;
+    }
+
+    private static boolean isAssignable(MethodType targetType, MethodType callSiteType, int leading, int dropped, int kept) {
+      for(var i = 0; i < targetType.parameterCount(); i++) {
+        var index = i < kept? dropped + i: leading + i - kept;
+        if (!isAssignable(targetType.parameterType(i), callSiteType.parameterType(index))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Adapts the target to the call site type by dropping the leading parameters not passed to the target.
+     */
+    MethodHandle adapt(MethodHandle target, MethodType callSiteType, int leading) {
+      var leadingTypes = callSiteType.parameterList().subList(0, leading);
+      target = MethodHandles.dropArguments(target, kept, leadingTypes.subList(dropped + kept, leading));
+      return MethodHandles.dropArguments(target, 0, leadingTypes.subList(0, dropped));
+    }
+
+    private static boolean isAccessible(Lookup lookup, Class<?> declaringClass, int modifiers) {
+      var lookupClass = lookup.lookupClass();
+      if (Modifier.isPrivate(modifiers)) {
+        return lookupClass.getNestHost() == declaringClass.getNestHost();
+      }
+      var samePackage = lookupClass.getClassLoader() == declaringClass.getClassLoader() &&
+          lookupClass.getPackageName().equals(declaringClass.getPackageName());
+      return samePackage || (Modifier.isPublic(modifiers) && Modifier.isPublic(declaringClass.getModifiers()));
+    }
+
+    /**
+     * Returns true if the declaring class of the target and the classes of its descriptor
+     * are resolved to the same classes by the class loader of the lookup class,
+     * otherwise the direct call would fail with a {@link NoClassDefFoundError}.
+     */
+    static boolean isVisible(Lookup lookup, MethodHandle target) {
+      var info = lookup.revealDirect(target);
+      var loader = lookup.lookupClass().getClassLoader();
+      var methodType = info.getMethodType();
+      if (!isVisible(loader, info.getDeclaringClass()) || !isVisible(loader, methodType.returnType())) {
+        return false;
+      }
+      for(var parameterType: methodType.parameterList()) {
+        if (!isVisible(loader, parameterType)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean isVisible(ClassLoader loader, Class<?> type) {
+      if (type.isPrimitive()) {
+        return true;
+      }
+      try {
+        return Class.forName(type.getName(), false, loader) == type;
+      } catch (ClassNotFoundException | LinkageError e) {
+        return false;
+      }
+    }
+
+    private static boolean isAssignable(Class<?> to, Class<?> from) {
+      if (to.isPrimitive() || from.isPrimitive()) {
+        return to == from;
+      }
+      return to.isAssignableFrom(from);
+    }
+  }
+
+  private static Class<?> receiverType(Class<?>[] interfaces, Method method, boolean declaringClassReceiver) {
+    if (declaringClassReceiver) {
+      return method.getDeclaringClass();
+    }
+    return interfaces.length == 0? Object.class: interfaces[0];
+  }
+
+  private static String fieldName(int index) {
+    return "field" + index;
+  }
+
+  private static byte[] generateBytecode(String proxyName, Class<?>[] interfaces, List<MethodEntry> methods, boolean declaringClassReceiver, Layout layout, boolean methodTable, boolean instanceTable, DirectCall[] directCalls) {
+    var fieldTypes = layout.fieldTypes;
     var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    var interfaceNames = interfaceList.stream().map(itf -> itf.getName().replace('.', '/')).toArray(String[]::new);
+    var interfaceNames = new String[interfaces.length];
+    for(var i = 0; i < interfaces.length; i++) {
+      interfaceNames[i] = interfaces[i].getName().replace('.', '/');
+    }
     writer.visit(V16, ACC_PUBLIC | ACC_SUPER, proxyName, null, "java/lang/Object", interfaceNames);
-    if (delegateClass != void.class) {
-      var fv = writer.visitField(ACC_PRIVATE | ACC_FINAL, "delegate", delegateClass.descriptorString(), null, null);
+    var fieldDescriptors = new StringBuilder();
+    for(var i = 0; i < fieldTypes.size(); i++) {
+      var fieldDescriptor = fieldTypes.get(i).descriptorString();
+      var fv = writer.visitField(ACC_PRIVATE | ACC_FINAL, fieldName(i), fieldDescriptor, null, null);
+      fv.visitEnd();
+      fieldDescriptors.append(fieldDescriptor);
+    }
+    var tableDescriptor = MethodHandle[].class.descriptorString();
+    if (instanceTable) {
+      var fv = writer.visitField(ACC_PRIVATE | ACC_FINAL, "methodTable", tableDescriptor, null, null);
       fv.visitEnd();
     }
 
-    var init = writer.visitMethod(ACC_PUBLIC, "<init>", delegateClass == void.class? "()V": "(" + delegateClass.descriptorString() + ")V", null, null);
+    var methodTableDescriptor = instanceTable? MethodTable.class.descriptorString(): "";
+    var init = writer.visitMethod(ACC_PUBLIC, "<init>", "(" + methodTableDescriptor + fieldDescriptors + ")V", null, null);
     init.visitCode();
     init.visitVarInsn(ALOAD, 0);
     init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-    if (delegateClass != void.class) {
-      var delegateType = Type.getType(delegateClass);
+    var fieldSlot = 1;
+    if (instanceTable) {
       init.visitVarInsn(ALOAD, 0);
-      init.visitVarInsn(delegateType.getOpcode(ILOAD), 1);
-      init.visitFieldInsn(PUTFIELD, proxyName, "delegate", delegateClass.descriptorString());
+      init.visitVarInsn(ALOAD, fieldSlot++);
+      init.visitInvokeDynamicInsn("methodTable", "(" + methodTableDescriptor + ")" + tableDescriptor, INSTANCE_METHOD_TABLE_BSM);
+      init.visitFieldInsn(PUTFIELD, proxyName, "methodTable", tableDescriptor);
+    }
+    for(var i = 0; i < fieldTypes.size(); i++) {
+      var fieldType = Type.getType(fieldTypes.get(i));
+      init.visitVarInsn(ALOAD, 0);
+      init.visitVarInsn(fieldType.getOpcode(ILOAD), fieldSlot);
+      init.visitFieldInsn(PUTFIELD, proxyName, fieldName(i), fieldType.getDescriptor());
+      fieldSlot += fieldType.getSize();
     }
     init.visitInsn(RETURN);
     init.visitMaxs(-1, -1);
     init.visitEnd();
 
-    map.forEach((key, method) -> {
-      var descriptor = key.descriptor;
-      var mv = writer.visitMethod(ACC_PUBLIC, key.name, descriptor, null, null);
+    var constantDescriptor = layout.constantType == null? "": layout.constantType.descriptorString();
+    var constant = layout.constantType == null? null: new ConstantDynamic("constant", constantDescriptor, CONSTANT_BSM);
+    var constantCount = constant == null? 0: 1;
+    for(var i = 0; i < methods.size(); i++) {
+      var method = methods.get(i);
+      var descriptor = method.descriptor;
+      var receiverDescriptor = receiverType(interfaces, method.method, declaringClassReceiver).descriptorString();
+      var indyDesc = "(" + receiverDescriptor + constantDescriptor + fieldDescriptors + descriptor.substring(1);
+      var mv = writer.visitMethod(ACC_PUBLIC, method.name(), descriptor, null, null);
       mv.visitCode();
-      mv.visitVarInsn(ALOAD, 0);
-      if (delegateClass != void.class) {
+      var directCall = directCalls[i];
+      var dropped = directCall == null? 0: directCall.dropped;
+      var end = directCall == null? Integer.MAX_VALUE: directCall.dropped + directCall.kept;  // end of the leading arguments
+      if (instanceTable) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, proxyName, "methodTable", tableDescriptor);
+        mv.visitLdcInsn(i);
+        mv.visitInsn(AALOAD);
+      } else if (directCall == null && methodTable) {
+        mv.visitLdcInsn(METHOD_TABLE_CONSTANT);
+        mv.visitLdcInsn(i);
+        mv.visitInsn(AALOAD);
+      }
+      if (dropped < 1 && end > 0) {
+        mv.visitVarInsn(ALOAD, 0);
+      }
+      if (constant != null && dropped < 2 && end > 1) {
+        mv.visitLdcInsn(constant);
+      }
+      var fieldEnd = Math.min(fieldTypes.size(), end - 1 - constantCount);
+      for(var field = Math.max(0, dropped - 1 - constantCount); field < fieldEnd; field++) {
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitFieldInsn(GETFIELD, proxyName, "delegate", delegateClass.descriptorString());
+        mv.visitFieldInsn(GETFIELD, proxyName, fieldName(field), fieldTypes.get(field).descriptorString());
       }
       var parameterSlot = 1;
-      var parameterTypes = Type.getArgumentTypes(descriptor);
-      for (var parameterType : parameterTypes) {
+      for (var parameterType : method.argumentTypes) {
         mv.visitVarInsn(parameterType.getOpcode(ILOAD), parameterSlot);
         parameterSlot += parameterType.getSize();
       }
-      var isInterface = method.getDeclaringClass().isInterface(); // it can be java/lang/Object
-      var methodHandle = new Handle(isInterface? H_INVOKEINTERFACE: H_INVOKEVIRTUAL, method.getDeclaringClass().getName().replace('.', '/'), method.getName(), descriptor, isInterface);
-      var proxyType = Arrays.stream(interfaces).findFirst().map(Class::descriptorString).orElse("Ljava/lang/Object;");
-      var indyDesc = '(' + proxyType + (delegateClass == void.class? "": delegateClass.descriptorString()) + descriptor.substring(1);
-      mv.visitInvokeDynamicInsn(method.getName(), indyDesc, BSM, methodHandle);
+      if (directCall != null) {
+        mv.visitMethodInsn(directCall.opcode, directCall.owner, directCall.name, directCall.descriptor, directCall.isInterface);
+      } else if (methodTable) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact", indyDesc, false);
+      } else {
+        mv.visitInvokeDynamicInsn(method.name(), indyDesc, BSM, method.handle, i);
+      }
+      mv.visitInsn(method.returnType.getOpcode(IRETURN));
+      mv.visitMaxs(-1, -1);
+      mv.visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private static byte[] generateFactoryBytecode(String factoryName, Class<?> factoryInterface, List<Method> methods) {
+    var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(V16, ACC_PUBLIC | ACC_SUPER | ACC_FINAL, factoryName, null, "java/lang/Object", new String[] { Type.getInternalName(factoryInterface) });
+
+    var init = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+    init.visitCode();
+    init.visitVarInsn(ALOAD, 0);
+    init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    init.visitInsn(RETURN);
+    init.visitMaxs(-1, -1);
+    init.visitEnd();
+
+    // each method calls the constructor of the proxy class adapted to its method type,
+    // a constant method handle fully inlined by the JIT
+    for(var i = 0; i < methods.size(); i++) {
+      var method = methods.get(i);
+      var descriptor = Type.getMethodDescriptor(method);
+      var mv = writer.visitMethod(ACC_PUBLIC, method.getName(), descriptor, null, null);
+      mv.visitCode();
+      mv.visitLdcInsn(new ConstantDynamic("_", CD_MethodHandle.descriptorString(), CLASS_DATA_AT_BSM, i));
+      var slot = 1;
+      for(var type: Type.getArgumentTypes(descriptor)) {
+        mv.visitVarInsn(type.getOpcode(ILOAD), slot);
+        slot += type.getSize();
+      }
+      mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact", descriptor, false);
       mv.visitInsn(Type.getReturnType(descriptor).getOpcode(IRETURN));
       mv.visitMaxs(-1, -1);
       mv.visitEnd();
-    });
+    }
     writer.visitEnd();
     return writer.toByteArray();
   }
 
+  private static final Handle CLASS_DATA_AT_BSM = new Handle(H_INVOKESTATIC,
+      "java/lang/invoke/MethodHandles",
+      "classDataAt",
+      MethodTypeDesc.of(CD_Object, CD_MethodHandles_Lookup, CD_String, CD_Class, CD_int).descriptorString(),
+      false);
+
   private static final Handle BSM = new Handle(H_INVOKESTATIC,
       Proxy.class.getName().replace('.', '/'),
       "proxyMetaFactory",
-      MethodTypeDesc.of(CD_CallSite, CD_MethodHandles_Lookup, CD_String, CD_MethodType, CD_MethodHandle).descriptorString(),
+      MethodTypeDesc.of(CD_CallSite, CD_MethodHandles_Lookup, CD_String, CD_MethodType, CD_MethodHandle, CD_int).descriptorString(),
+      false);
+
+  private static final ConstantDynamic METHOD_TABLE_CONSTANT = new ConstantDynamic("methodTable", MethodHandle[].class.descriptorString(),
+      new Handle(H_INVOKESTATIC,
+          Proxy.class.getName().replace('.', '/'),
+          "proxyMethodTable",
+          MethodTypeDesc.of(CD_MethodHandle.arrayType(), CD_MethodHandles_Lookup, CD_String, CD_Class).descriptorString(),
+          false));
+
+  private static final Handle INSTANCE_METHOD_TABLE_BSM = new Handle(H_INVOKESTATIC,
+      Proxy.class.getName().replace('.', '/'),
+      "proxyInstanceMethodTable",
+      MethodTypeDesc.of(CD_CallSite, CD_MethodHandles_Lookup, CD_String, CD_MethodType).descriptorString(),
       false);
 
-  public static CallSite proxyMetaFactory(Lookup lookup, String name, MethodType methodType, MethodHandle mh) throws Throwable {
+  private static final Handle CONSTANT_BSM = new Handle(H_INVOKESTATIC,
+      Proxy.class.getName().replace('.', '/'),
+      "proxyConstant",
+      MethodTypeDesc.of(CD_Object, CD_MethodHandles_Lookup, CD_String, CD_Class).descriptorString(),
+      false);
+
+  /**
+   * The bootstrap method of the constant dynamic that loads the constant of a proxy class
+   * defined by {@link #defineConstantProxy(Lookup, Class[], Predicate, Class, Object, Linker, Option...)}.
+   * This method is public because the generated bytecode needs to access it, it should not be called directly.
+   *
+   * @param lookup the lookup on the proxy class.
+   * @param name the name of the constant.
+   * @param type the type of the constant.
+   * @return the constant of the proxy class.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   */
+  public static Object proxyConstant(Lookup lookup, String name, Class<?> type) throws IllegalAccessException {
+    Objects.requireNonNull(lookup);
+    Objects.requireNonNull(name);
+    Objects.requireNonNull(type);
+    var classData = MethodHandles.classData(lookup, "_", ClassData.class);
+    return classData.constant;
+  }
+
+  /**
+   * The bootstrap method of the constant dynamic that loads the method table of a proxy class.
+   * This method is public because the generated bytecode needs to access it, it should not be called directly.
+   *
+   * @param lookup the lookup on the proxy class.
+   * @param name the name of the constant.
+   * @param type the type of the constant, an array of method handles.
+   * @return the method table of the proxy class.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   */
+  public static MethodHandle[] proxyMethodTable(Lookup lookup, String name, Class<?> type) throws IllegalAccessException {
+    Objects.requireNonNull(lookup);
+    Objects.requireNonNull(name);
+    Objects.requireNonNull(type);
+    var classData = MethodHandles.classData(lookup, "_", ClassData.class);
+    return classData.methodTable(lookup);
+  }
+
+  private static final MethodHandle CHECK_METHOD_TABLE;
+  static {
+    try {
+      CHECK_METHOD_TABLE = MethodHandles.lookup().findStatic(Proxy.class, "checkMethodTable",
+          MethodType.methodType(MethodHandle[].class, Class.class, MethodTable.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static MethodHandle[] checkMethodTable(Class<?> proxyClass, MethodTable methodTable) {
+    Objects.requireNonNull(methodTable, "methodTable is null");
+    if (methodTable.proxyClass != proxyClass) {
+      throw new IllegalArgumentException(methodTable + " can not be used by " + proxyClass.getName());
+    }
+    return methodTable.methodHandles;
+  }
+
+  /**
+   * The bootstrap method of the invokedynamic used by the constructor of a proxy class defined with
+   * the option {@link Option#INSTANCE_METHOD_TABLE} to check the method table and get its method handles.
+   * This method is public because the generated bytecode needs to access it, it should not be called directly.
+   *
+   * @param lookup the lookup on the proxy class.
+   * @param name the name of the method.
+   * @param methodType the type of the call site, a method table to an array of method handles.
+   * @return a call site that returns the method handles of a method table created for the proxy class.
+   * @throws IllegalAccessException if the lookup does not have full privilege access
+   */
+  public static CallSite proxyInstanceMethodTable(Lookup lookup, String name, MethodType methodType) throws IllegalAccessException {
+    Objects.requireNonNull(lookup);
+    Objects.requireNonNull(name);
+    Objects.requireNonNull(methodType);
+    MethodHandles.classData(lookup, "_", ClassData.class);  // checks that the lookup is a full privilege lookup on a proxy class
+    return new ConstantCallSite(CHECK_METHOD_TABLE.bindTo(lookup.lookupClass()));
+  }
+
+  /**
+   * The bootstrap method called by the methods of a proxy class.
+   * This method is public because the generated bytecode needs to access it, it should not be called directly.
+   *
+   * @param lookup the lookup on the proxy class.
+   * @param name the name of the method of the proxy.
+   * @param methodType the type of the call site, the proxy and the fields followed by the parameter types.
+   * @param mh a constant method handle on the interface method implemented by the proxy.
+   * @param index the index of the method in the proxy class.
+   * @return a call site that calls the method handle returned by the linker.
+   * @throws Throwable if the linker fails to link the method.
+   */
+  public static CallSite proxyMetaFactory(Lookup lookup, String name, MethodType methodType, MethodHandle mh, int index) throws Throwable {
     Objects.requireNonNull(lookup);
     Objects.requireNonNull(name);
     Objects.requireNonNull(methodType);
     Objects.requireNonNull(mh);
-    var info = lookup.revealDirect(mh);
-    var linker = MethodHandles.classData(lookup, "_", Linker.class);
+    var classData = MethodHandles.classData(lookup, "_", ClassData.class);
+    return classData.callSite(lookup, index);
+  }
+
+  private static MethodHandle resolve(Linker linker, MethodHandleInfo info) throws Throwable {
     var target = linker.resolve(info);
     if (target == null) {
       Objects.requireNonNull(target, "linker " + linker.getClass().getSimpleName() + " returned function is null for proxy method " + info);
     }
+    return target;
+  }
+
+  private static MethodHandle asCallSiteType(Linker linker, MethodHandleInfo info, MethodHandle target, MethodType methodType) {
     try {
-      target = target.asType(methodType);
+      return target.asType(methodType);
     } catch(WrongMethodTypeException e) {
       String detail = "";
       if (target.type().parameterCount() != methodType.parameterCount()) {
@@ -158,6 +1572,5 @@ public class Proxy {
       }
       throw new LinkageError("error for linker " + linker.getClass().getSimpleName() + " while trying to link proxy method " + info + detail, e);
     }
-    return new ConstantCallSite(target);
   }
 }
@@ -0,0 +1,206 @@
+package com.github.forax.proxy;
+
+import com.github.forax.proxy.Proxy.Linker;
+import com.github.forax.proxy.Proxy.Option;
+
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A cache of proxy classes, it returns the same proxy class if
+ * {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)} is called with a lookup on the same class,
+ * the same interfaces, the same overridden methods, the same delegate class and the same linker
+ * (compared by identity).
+ *
+ * The proxy classes are stored in a {@link ClassValue} of the lookup class so the entries
+ * are reclaimed when the class loader of the lookup class is collected.
+ * The cache references the proxy classes weakly, an entry is removed once its proxy class is not reachable anymore,
+ * so the cache does not keep alive a proxy class defined with the option {@link Option#UNLOADABLE}
+ * nor its linker.
+ *
+ * A proxy class is defined outside of any lock of the cache, the linker can use the cache
+ * to define other proxy classes. The threads asking for a proxy class being defined wait for
+ * the end of its definition.
+ *
+ * This class is thread safe.
+ */
+public final class ProxyCache {
+  private record Key(List<Class<?>> interfaces, List<Proxy.MethodEntry> methods, List<Class<?>> fieldTypes, Linker linker, Set<Option> options) {
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key key &&
+          linker == key.linker &&
+          fieldTypes.equals(key.fieldTypes) &&
+          interfaces.equals(key.interfaces) &&
+          methods.equals(key.methods) &&
+          options.equals(key.options);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(linker) ^ interfaces.hashCode() ^ methods.hashCode();
+    }
+  }
+
+  /**
+   * An entry of the cache, completed with a weak reference on the lookup of the proxy class once defined.
+   */
+  private static final class Entry {
+    private Thread owner = Thread.currentThread();  // only compared by the owner thread, cleared once defined
+    private final CompletableFuture<WeakReference<Lookup>> reference = new CompletableFuture<>();
+
+    /**
+     * Returns the lookup on the proxy class, waiting for the end of its definition if necessary,
+     * or null if the proxy class has been collected.
+     */
+    Lookup proxyLookup() {
+      if (owner == Thread.currentThread() && !reference.isDone()) {
+        throw new IllegalStateException("recursive definition of the same proxy class");
+      }
+      try {
+        return reference.join().get();
+      } catch(CompletionException e) {
+        var cause = e.getCause();
+        if (cause instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw (Error) cause;
+      }
+    }
+  }
+
+  /**
+   * A weak reference on the lookup of a proxy class, the lookup is reachable from the class data of the proxy class
+   * so it is collected with the proxy class, its entry is then removed from the map.
+   */
+  private static final class EntryReference extends WeakReference<Lookup> {
+    private final ConcurrentHashMap<Key, Entry> map;
+    private final Key key;
+    private final Entry entry;
+
+    private EntryReference(Lookup proxyLookup, ReferenceQueue<Lookup> queue, ConcurrentHashMap<Key, Entry> map, Key key, Entry entry) {
+      super(proxyLookup, queue);
+      this.map = map;
+      this.key = key;
+      this.entry = entry;
+    }
+  }
+
+  private final ClassValue<ConcurrentHashMap<Key, Entry>> proxyMap = new ClassValue<>() {
+    @Override
+    protected ConcurrentHashMap<Key, Entry> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+  private final ReferenceQueue<Lookup> queue = new ReferenceQueue<>();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates an empty cache.
+   */
+  public ProxyCache() { }
+
+  /**
+   * Returns a cached proxy class or defines a new one using
+   * {@link Proxy#defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}.
+   *
+   * @param lookup the lookup used to define the proxy class.
+   * @param interfaces the interfaces implemented by the proxy class.
+   * @param shouldOverride a predicate indicating if methods of java.lang.Object or default method
+   *                       should be overridden or not
+   * @param delegateClass the class of the delegate field inside the proxy or void.class if there is no field.
+   * @param linker the linker that will resolve the calls to the proxy methods.
+   * @param options the options used to define the proxy class.
+   * @return a lookup on a proxy class that implements the interfaces.
+   * @throws IllegalAccessException if this Lookup does not have full privilege access
+   * @throws SecurityException if a security manager is present and it refuses access
+   * @throws NullPointerException if any parameter is null
+   * @throws IllegalStateException if the linker asks for the proxy class it is linking
+   */
+  public Lookup defineProxy(Lookup lookup, Class<?>[] interfaces, Predicate<Method> shouldOverride, Class<?> delegateClass, Linker linker, Option... options) throws IllegalAccessException {
+    Objects.requireNonNull(lookup);
+    Objects.requireNonNull(interfaces);
+    Objects.requireNonNull(shouldOverride);
+    Objects.requireNonNull(delegateClass);
+    Objects.requireNonNull(linker);
+    if (!lookup.hasFullPrivilegeAccess()) {
+      throw new IllegalAccessException(lookup + " does not have full privilege access");
+    }
+    var optionSet = Proxy.optionSet(options);
+    var methods = Proxy.proxyMethods(interfaces, shouldOverride, optionSet);
+    var fieldTypes = Proxy.fieldTypes(delegateClass);
+    var key = new Key(List.of(interfaces), methods, fieldTypes, linker, optionSet);
+    requests.increment();
+    expungeStaleEntries();
+    var map = proxyMap.get(lookup.lookupClass());
+    for(;;) {
+      var entry = map.get(key);
+      if (entry == null) {
+        var newEntry = new Entry();
+        entry = map.putIfAbsent(key, newEntry);
+        if (entry == null) {
+          misses.increment();
+          return define(newEntry, map, key, lookup, interfaces, methods, fieldTypes, linker, optionSet);
+        }
+      }
+      var proxyLookup = entry.proxyLookup();
+      if (proxyLookup != null) {
+        return proxyLookup;
+      }
+      map.remove(key, entry);  // the proxy class was collected
+    }
+  }
+
+  private Lookup define(Entry entry, ConcurrentHashMap<Key, Entry> map, Key key, Lookup lookup, Class<?>[] interfaces, List<Proxy.MethodEntry> methods, List<Class<?>> fieldTypes, Linker linker, Set<Option> options) {
+    Lookup proxyLookup;
+    try {
+      proxyLookup = Proxy.defineProxy(lookup, interfaces, methods, Proxy.Layout.ofFields(fieldTypes), linker, options);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);  // full privilege access already checked
+    } catch(RuntimeException | Error e) {
+      map.remove(key, entry);
+      entry.owner = null;
+      entry.reference.completeExceptionally(e);
+      throw e;
+    }
+    entry.owner = null;
+    entry.reference.complete(new EntryReference(proxyLookup, queue, map, key, entry));
+    return proxyLookup;
+  }
+
+  private void expungeStaleEntries() {
+    EntryReference reference;
+    while((reference = (EntryReference) queue.poll()) != null) {
+      reference.map.remove(reference.key, reference.entry);
+    }
+  }
+
+  /**
+   * Returns the number of calls to {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}
+   * that have returned an already defined proxy class.
+   * @return the number of cache hits.
+   */
+  public long hitCount() {
+    return requests.sum() - misses.sum();
+  }
+
+  /**
+   * Returns the number of calls to {@link #defineProxy(Lookup, Class[], Predicate, Class, Linker, Option...)}
+   * that have defined a new proxy class.
+   * @return the number of cache misses.
+   */
+  public long missCount() {
+    return misses.sum();
+  }
+}
@@ -0,0 +1,153 @@
+package com.github.forax.proxy;
+
+import com.github.forax.proxy.Proxy.Linker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * A replacement of {@link java.lang.reflect.Proxy#newProxyInstance(ClassLoader, Class[], InvocationHandler)}
+ * that defines the proxy classes as hidden classes using
+ * {@link Proxy#defineProxy(Lookup, Class[], java.util.function.Predicate, Class, Linker, Proxy.Option...)}.
+ *
+ * Like with {@link java.lang.reflect.Proxy}, the calls to the methods of the interfaces, to their default methods
+ * and to the methods equals, hashCode and toString are sent to the {@link InvocationHandler},
+ * the arguments are boxed in an array or null if there is no argument,
+ * and the checked exceptions not declared by a method are wrapped into an {@link UndeclaredThrowableException}.
+ *
+ * The methods without parameter, like hashCode and toString, are called with null and do not allocate.
+ * The methods with parameters, equals included, allocate the array of arguments required by
+ * {@link InvocationHandler#invoke(Object, Method, Object[])}, the handler can keep or modify this array
+ * so it can not be shared, only the escape analysis of the JIT can remove it if the handler is inlined.
+ *
+ * The proxy classes are cached, per lookup class and list of interfaces.
+ */
+public class ReflectProxy {
+  private ReflectProxy() {
+    throw new AssertionError();
+  }
+
+  private static final ClassValue<ConcurrentHashMap<List<Class<?>>, Function<InvocationHandler, Object>>> FACTORIES = new ClassValue<>() {
+    @Override
+    protected ConcurrentHashMap<List<Class<?>>, Function<InvocationHandler, Object>> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  /**
+   * Returns a proxy instance that implements the interfaces and sends all the calls to the invocation handler.
+   *
+   * @param lookup the lookup used to define the proxy class.
+   * @param interfaces the interfaces implemented by the proxy.
+   * @param handler the invocation handler called for each method call.
+   * @return a proxy instance.
+   * @throws IllegalAccessException if this Lookup does not have full privilege access
+   * @throws NullPointerException if any parameter is null
+   */
+  public static Object newProxyInstance(Lookup lookup, Class<?>[] interfaces, InvocationHandler handler) throws IllegalAccessException {
+    Objects.requireNonNull(lookup);
+    Objects.requireNonNull(interfaces);
+    Objects.requireNonNull(handler);
+    if (!lookup.hasFullPrivilegeAccess()) {
+      throw new IllegalAccessException(lookup + " does not have full privilege access");
+    }
+    var map = FACTORIES.get(lookup.lookupClass());
+    var key = List.of(interfaces);
+    var factory = map.get(key);
+    if (factory == null) {
+      factory = map.computeIfAbsent(key, __ -> {
+        try {
+          var proxyLookup = Proxy.defineProxy(lookup, interfaces, ReflectProxy::shouldOverride, InvocationHandler.class, LINKER);
+          @SuppressWarnings("unchecked")
+          Function<InvocationHandler, Object> proxyFactory = Proxy.defineFactory(proxyLookup, Function.class);
+          return proxyFactory;
+        } catch (IllegalAccessException e) {
+          throw new AssertionError(e);  // full privilege access already checked
+        }
+      });
+    }
+    return factory.apply(handler);
+  }
+
+  private static boolean shouldOverride(Method method) {
+    if (method.getDeclaringClass() != Object.class) {
+      return true;  // default methods
+    }
+    return switch(method.getName()) {
+      case "equals", "hashCode", "toString" -> true;
+      default -> false;
+    };
+  }
+
+  private static final MethodHandle INVOKE, WRAP;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      INVOKE = lookup.findVirtual(InvocationHandler.class, "invoke", methodType(Object.class, Object.class, Method.class, Object[].class));
+      WRAP = lookup.findStatic(ReflectProxy.class, "wrap", methodType(Object.class, Class[].class, Throwable.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * The linker shared by all the proxy classes so the same proxy method is linked the same way.
+   * The method handles are typed (proxy, handler, parameters...) return type.
+   */
+  private static final Linker LINKER = ReflectProxy::link;
+
+  private static MethodHandle link(MethodHandleInfo methodInfo) throws NoSuchMethodException {
+    var methodType = methodInfo.getMethodType();
+    var method = methodInfo.getDeclaringClass().getMethod(methodInfo.getName(), methodType.parameterArray());
+
+    // (handler, proxy, args) -> (proxy, handler, args)
+    var target = MethodHandles.permuteArguments(
+        MethodHandles.insertArguments(INVOKE, 2, method),
+        methodType(Object.class, Object.class, InvocationHandler.class, Object[].class),
+        1, 0, 2);
+    var parameterCount = methodType.parameterCount();
+    if (parameterCount == 0) {
+      target = MethodHandles.insertArguments(target, 2, (Object) null);  // no array allocation
+    } else {
+      target = target.asCollector(Object[].class, parameterCount);
+    }
+    var exceptionTypes = method.getExceptionTypes();
+    if (!declaresAll(exceptionTypes)) {
+      target = MethodHandles.catchException(target, Throwable.class,
+          MethodHandles.dropArguments(WRAP.bindTo(exceptionTypes), 1, target.type().parameterList()));
+    }
+    return target.asType(methodType.insertParameterTypes(0, Object.class, InvocationHandler.class));
+  }
+
+  private static boolean declaresAll(Class<?>[] exceptionTypes) {
+    for(var exceptionType: exceptionTypes) {
+      if (exceptionType == Throwable.class || exceptionType == Exception.class) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Object wrap(Class<?>[] exceptionTypes, Throwable throwable) throws Throwable {
+    if (throwable instanceof RuntimeException || throwable instanceof Error) {
+      throw throwable;
+    }
+    for(var exceptionType: exceptionTypes) {
+      if (exceptionType.isInstance(throwable)) {
+        throw throwable;
+      }
+    }
+    throw new UndeclaredThrowableException(throwable);
+  }
+}
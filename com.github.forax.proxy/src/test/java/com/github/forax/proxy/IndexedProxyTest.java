@@ -0,0 +1,98 @@
+package com.github.forax.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexedProxyTest {
+  interface Calc {
+    int add(int a, int b);
+    double scale(double value, float factor);
+    String concat(String s1, String s2);
+    boolean isEven(long value);
+    void log(String message, char level);
+    String join(String s1, String s2, String s3);
+  }
+
+  private static final class CalcHandler implements IndexedProxy.Handler {
+    private final List<Method> methods = IndexedProxy.methods(new Class<?>[] { Calc.class }, __ -> false);
+    private final List<String> calls = new ArrayList<>();
+
+    @Override
+    public Object invoke(Object proxy, int index, Object[] args) {
+      calls.add("invoke " + methods.get(index).getName());
+      return String.join("", Arrays.stream(args).map(String.class::cast).toList());
+    }
+
+    @Override
+    public Object invokeObject(Object proxy, int index, long long0, long long1, double double0, double double1, Object object0, Object object1) {
+      calls.add("invokeObject " + methods.get(index).getName() + " " + long0 + " " + object0 + " " + object1);
+      return object1 == null? null: "" + object0 + object1;
+    }
+
+    @Override
+    public long invokeLong(Object proxy, int index, long long0, long long1, double double0, double double1, Object object0, Object object1) {
+      var name = methods.get(index).getName();
+      calls.add("invokeLong " + name);
+      return switch(name) {
+        case "add" -> long0 + long1;
+        case "isEven" -> long0 % 2 == 0? 1: 0;
+        default -> throw new AssertionError();
+      };
+    }
+
+    @Override
+    public double invokeDouble(Object proxy, int index, long long0, long long1, double double0, double double1, Object object0, Object object1) {
+      calls.add("invokeDouble " + methods.get(index).getName());
+      return double0 * double1;
+    }
+  }
+
+  @Test
+  public void methods() {
+    var methods = IndexedProxy.methods(new Class<?>[] { Calc.class }, __ -> false);
+    assertEquals(Set.of("add", "scale", "concat", "isEven", "log", "join"),
+        methods.stream().map(Method::getName).collect(toSet()));
+    assertEquals(methods, IndexedProxy.methods(new Class<?>[] { Calc.class }, __ -> false));
+  }
+
+  @Test
+  public void slots() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = IndexedProxy.defineProxy(lookup, new Class<?>[] { Calc.class }, __ -> false);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, IndexedProxy.Handler.class));
+    var handler = new CalcHandler();
+    var calc = (Calc) constructor.invoke(handler);
+    assertEquals(5, calc.add(2, 3));
+    assertEquals(3.0, calc.scale(2.0, 1.5f));
+    assertEquals("foobar", calc.concat("foo", "bar"));
+    assertTrue(calc.isEven(4));
+    assertFalse(calc.isEven(3));
+    calc.log("hello", 'w');
+    assertEquals(List.of(
+        "invokeLong add", "invokeDouble scale", "invokeObject concat 0 foo bar", "invokeLong isEven", "invokeLong isEven",
+        "invokeObject log " + (long) 'w' + " hello null"), handler.calls);
+  }
+
+  @Test
+  public void tooManyArguments() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = IndexedProxy.defineProxy(lookup, new Class<?>[] { Calc.class }, __ -> false);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, IndexedProxy.Handler.class));
+    var handler = new CalcHandler();
+    var calc = (Calc) constructor.invoke(handler);
+    assertEquals("abc", calc.join("a", "b", "c"));
+    assertEquals(List.of("invoke join"), handler.calls);
+  }
+}
@@ -0,0 +1,221 @@
+package com.github.forax.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.WrongMethodTypeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.filterReturnValue;
+import static java.lang.invoke.MethodType.methodType;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LinkersTest {
+  interface Shape {
+    double area();
+  }
+  record Square(double side) implements Shape {
+    public double area() {
+      return side * side;
+    }
+  }
+  record Rectangle(double width, double height) implements Shape {
+    public double area() {
+      return width * height;
+    }
+  }
+  record Circle(double radius) implements Shape {
+    public double area() {
+      return Math.PI * radius * radius;
+    }
+  }
+
+  private static Shape[] shapes() {
+    return new Shape[] { new Square(2), new Rectangle(2, 3), new Circle(1), new Square(3) };
+  }
+
+  private static void checkInlineCache(int depth) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var inliningCaches = new ArrayList<Linkers.InliningCache>();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Shape.class },
+        method -> method.getName().equals("toString"), Shape.class, Linkers.inlineCache(lookup, depth, inliningCaches::add));
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Shape.class));
+    for(var i = 0; i < 3; i++) {
+      for (var shape : shapes()) {
+        var proxy = (Shape) constructor.invoke(shape);
+        assertEquals(shape.area(), proxy.area());
+        assertEquals(shape.toString(), proxy.toString());
+      }
+    }
+
+    // area and toString, each inline cache has seen 3 classes
+    var classCount = (int) Arrays.stream(shapes()).map(Object::getClass).distinct().count();
+    assertEquals(2, inliningCaches.size());
+    for(var inliningCache: inliningCaches) {
+      assertAll(
+          () -> assertEquals(Math.min(depth, classCount), inliningCache.concreteTargetCount()),
+          () -> assertEquals(depth < classCount, inliningCache.isMegamorphic())
+      );
+    }
+  }
+
+  @Test
+  public void inlineCacheStates() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var inliningCaches = new ArrayList<Linkers.InliningCache>();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Shape.class }, __ -> false, Shape.class,
+        Linkers.inlineCache(lookup, 2, inliningCaches::add));
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Shape.class));
+
+    assertEquals(4.0, ((Shape) constructor.invoke(new Square(2))).area());
+    var inliningCache = inliningCaches.get(0);
+    assertEquals(1, inliningCache.concreteTargetCount());  // monomorphic
+    assertEquals(9.0, ((Shape) constructor.invoke(new Square(3))).area());
+    assertEquals(1, inliningCache.concreteTargetCount());  // same class, no miss
+    assertEquals(6.0, ((Shape) constructor.invoke(new Rectangle(2, 3))).area());
+    assertEquals(2, inliningCache.concreteTargetCount());  // bimorphic
+    assertFalse(inliningCache.isMegamorphic());
+    assertEquals(Math.PI, ((Shape) constructor.invoke(new Circle(1))).area());
+    assertTrue(inliningCache.isMegamorphic());
+    assertEquals(2, inliningCache.concreteTargetCount());
+  }
+
+  @Test
+  public void inlineCacheMegamorphic() throws Throwable {
+    checkInlineCache(0);
+  }
+
+  @Test
+  public void inlineCacheMonomorphic() throws Throwable {
+    checkInlineCache(1);
+  }
+
+  @Test
+  public void inlineCacheBimorphic() throws Throwable {
+    checkInlineCache(2);
+  }
+
+  @Test
+  public void inlineCachePolymorphic() throws Throwable {
+    checkInlineCache(8);
+  }
+
+  @Test
+  public void inlineCacheNegativeDepth() {
+    assertThrows(IllegalArgumentException.class, () -> Linkers.inlineCache(MethodHandles.lookup(), -1));
+  }
+
+  private static final MethodHandle TWICE, PLUS_ONE;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      TWICE = lookup.findStatic(LinkersTest.class, "twice", methodType(double.class, double.class));
+      PLUS_ONE = lookup.findStatic(LinkersTest.class, "plusOne", methodType(double.class, double.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static double twice(double value) {
+    return 2 * value;
+  }
+
+  private static double plusOne(double value) {
+    return value + 1;
+  }
+
+  @Test
+  public void decorate() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var called = new ArrayList<String>();
+    var tracing = (Linkers.Decorator) (methodInfo, target) -> {
+      called.add(methodInfo.getName());
+      return target;
+    };
+    var twice = (Linkers.Decorator) (methodInfo, target) -> filterReturnValue(target, TWICE);
+    var plusOne = (Linkers.Decorator) (methodInfo, target) -> filterReturnValue(target, PLUS_ONE);
+    var linker = Linkers.decorate(
+        methodInfo -> dropArguments(lookup.findVirtual(Shape.class, "area", methodType(double.class)), 0, Object.class),
+        List.of(tracing, twice, plusOne));
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Shape.class }, __ -> false, Shape.class, linker);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Shape.class));
+    var proxy = (Shape) constructor.invoke(new Square(2));
+    assertEquals(10.0, proxy.area());  // twice is the outermost decorator
+    assertEquals(List.of("area"), called);
+  }
+
+  @Test
+  public void decorateWrongType() {
+    var linker = Linkers.decorate(
+        methodInfo -> MethodHandles.identity(double.class),
+        List.of((methodInfo, target) -> MethodHandles.identity(int.class)));
+    assertThrows(WrongMethodTypeException.class, () -> linker.resolve(null));
+  }
+
+  private static final List<String> EVENTS = new ArrayList<>();
+
+  private static void beforeArea(Object proxy, Shape shape) {
+    EVENTS.add("before " + shape);
+  }
+
+  private static double aroundArea(MethodHandle target, Object proxy, Shape shape) throws Throwable {
+    EVENTS.add("around");
+    return 100 + (double) target.invokeExact(proxy, shape);
+  }
+
+  private static double recover(IllegalStateException e) {
+    EVENTS.add("recover " + e.getMessage());
+    return -1;
+  }
+
+  private static void cleanup(Throwable throwable) {
+    EVENTS.add("cleanup " + throwable);
+  }
+
+  private static Shape advisedProxy(Linkers.Decorator... decorators) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var linker = Linkers.decorate(
+        methodInfo -> dropArguments(lookup.findVirtual(Shape.class, "area", methodType(double.class)), 0, Object.class),
+        List.of(decorators));
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Shape.class }, __ -> false, Shape.class, linker);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Shape.class));
+    Shape failing = () -> { throw new IllegalStateException("fail"); };
+    return (Shape) constructor.invoke((Shape) () -> failing.area() + new Square(2).area());
+  }
+
+  @Test
+  public void advices() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var before = lookup.findStatic(LinkersTest.class, "beforeArea", methodType(void.class, Object.class, Shape.class));
+    var around = lookup.findStatic(LinkersTest.class, "aroundArea", methodType(double.class, MethodHandle.class, Object.class, Shape.class));
+    var recover = lookup.findStatic(LinkersTest.class, "recover", methodType(double.class, IllegalStateException.class));
+    var cleanup = lookup.findStatic(LinkersTest.class, "cleanup", methodType(void.class, Throwable.class));
+    EVENTS.clear();
+    var proxy = advisedProxy(
+        Linkers.onFinally(cleanup),
+        Linkers.after(TWICE),
+        Linkers.onException(IllegalStateException.class, recover),
+        Linkers.around(around),
+        Linkers.before(before));
+    assertEquals(-2.0, proxy.area());
+    assertEquals(4, EVENTS.size());
+    assertEquals("around", EVENTS.get(0));
+    assertTrue(EVENTS.get(1).startsWith("before "));
+    assertEquals(List.of("recover fail", "cleanup null"), EVENTS.subList(2, 4));
+  }
+
+  @Test
+  public void adviceWrongArity() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var before = lookup.findStatic(LinkersTest.class, "beforeArea", methodType(void.class, Object.class, Shape.class));
+    assertThrows(LinkageError.class, () -> advisedProxy(Linkers.before(dropArguments(before, 2, int.class))).area());
+  }
+}
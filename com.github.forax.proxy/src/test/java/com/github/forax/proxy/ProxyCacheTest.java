@@ -0,0 +1,186 @@
+package com.github.forax.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+import static java.lang.invoke.MethodHandles.constant;
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.identity;
+import static java.lang.invoke.MethodType.methodType;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProxyCacheTest {
+  @Test
+  public void sameProxyClass() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(identity(int.class), 0, Object.class);
+    var cache = new ProxyCache();
+    var proxyLookup1 = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class, linker);
+    var proxyLookup2 = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class, linker);
+    assertSame(proxyLookup1.lookupClass(), proxyLookup2.lookupClass());
+    assertEquals(1, cache.hitCount());
+    assertEquals(1, cache.missCount());
+
+    var constructor = proxyLookup2.findConstructor(proxyLookup2.lookupClass(), methodType(void.class, int.class));
+    var proxy = (IntSupplier) constructor.invoke(42);
+    assertEquals(42, proxy.getAsInt());
+  }
+
+  @Test
+  public void differentLinkers() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var cache = new ProxyCache();
+    var proxyLookup1 = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class,
+        methodInfo -> dropArguments(identity(int.class), 0, Object.class));
+    var proxyLookup2 = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class,
+        methodInfo -> dropArguments(identity(int.class), 0, Object.class));
+    assertNotSame(proxyLookup1.lookupClass(), proxyLookup2.lookupClass());
+    assertEquals(0, cache.hitCount());
+    assertEquals(2, cache.missCount());
+  }
+
+  @Test
+  public void differentOverriddenMethods() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(identity(int.class), 0, Object.class);
+    var cache = new ProxyCache();
+    var proxyLookup1 = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class, linker);
+    var proxyLookup2 = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, m -> m.getName().equals("hashCode"), int.class, linker);
+    assertNotSame(proxyLookup1.lookupClass(), proxyLookup2.lookupClass());
+    assertEquals(2, cache.missCount());
+  }
+
+  @Test
+  public void concurrentDefinitions() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(identity(int.class), 0, Object.class);
+    var cache = new ProxyCache();
+    var executor = Executors.newFixedThreadPool(8);
+    try {
+      var tasks = new ArrayList<Callable<Lookup>>();
+      for(var i = 0; i < 64; i++) {
+        tasks.add(() -> cache.defineProxy(lookup, new Class<?>[] { IntUnaryOperator.class }, __ -> false, void.class, linker));
+      }
+      var proxyClasses = executor.invokeAll(tasks).stream()
+          .map(future -> {
+            try {
+              return future.get().lookupClass();
+            } catch (Exception e) {
+              throw new AssertionError(e);
+            }
+          })
+          .distinct()
+          .count();
+      assertEquals(1, proxyClasses);
+      assertEquals(1, cache.missCount());
+      assertEquals(63, cache.hitCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void defineFromTheLinker() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var cache = new ProxyCache();
+    var innerLinker = (Proxy.Linker) methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class);
+    var outerLinker = (Proxy.Linker) methodInfo -> {
+      var innerLookup = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, innerLinker);
+      var inner = (IntSupplier) innerLookup.findConstructor(innerLookup.lookupClass(), methodType(void.class)).invoke();
+      return dropArguments(constant(int.class, inner.getAsInt()), 0, Object.class, int.class);
+    };
+    var proxyLookup = cache.defineProxy(lookup, new Class<?>[] { IntUnaryOperator.class }, __ -> false, void.class, outerLinker,
+        Proxy.Option.EAGER_LINKING);
+    var proxy = (IntUnaryOperator) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    assertEquals(42, proxy.applyAsInt(7));
+    assertEquals(2, cache.missCount());
+  }
+
+  @Test
+  public void defineTheSameProxyClassFromTheLinker() {
+    var lookup = MethodHandles.lookup();
+    var cache = new ProxyCache();
+    var linker = new Proxy.Linker() {
+      @Override
+      public MethodHandle resolve(MethodHandleInfo methodInfo) throws Throwable {
+        cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, this, Proxy.Option.EAGER_LINKING);
+        return dropArguments(constant(int.class, 42), 0, Object.class);
+      }
+    };
+    assertThrows(IllegalStateException.class,
+        () -> cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, linker, Proxy.Option.EAGER_LINKING));
+  }
+
+  private static boolean isCollected(WeakReference<?> reference, Runnable action) throws InterruptedException {
+    for(var i = 0; i < 20; i++) {
+      System.gc();
+      action.run();
+      if (reference.get() == null) {
+        return true;
+      }
+      Thread.sleep(10);
+    }
+    return false;
+  }
+
+  private static WeakReference<Class<?>> defineUnloadable(ProxyCache cache, Proxy.Linker linker) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = cache.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, linker, Proxy.Option.UNLOADABLE);
+    var proxy = (IntSupplier) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    assertEquals(42, proxy.getAsInt());
+    return new WeakReference<>(proxyLookup.lookupClass());
+  }
+
+  @Test
+  public void unloadableProxyClassAndLinkerNotRetained() throws Throwable {
+    var cache = new ProxyCache();
+    var value = 42;  // a capturing lambda, so the linker is not a constant
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(constant(int.class, value), 0, Object.class);
+    var proxyClass = defineUnloadable(cache, linker);
+    var linkerReference = new WeakReference<>(linker);
+    linker = null;
+    Runnable expunge = () -> {  // any access to the cache removes the collected entries
+      try {
+        cache.defineProxy(MethodHandles.lookup(), new Class<?>[] { IntBinaryOperator.class }, __ -> false, void.class,
+            methodInfo -> dropArguments(identity(int.class), 0, Object.class, int.class));
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    };
+    assertTrue(isCollected(proxyClass, expunge));
+    assertTrue(isCollected(linkerReference, expunge));
+  }
+
+  @Test
+  public void unloadableProxyClassDefinedAgain() throws Throwable {
+    var cache = new ProxyCache();
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class);
+    var proxyClass = defineUnloadable(cache, linker);
+    assertTrue(isCollected(proxyClass, () -> {}));
+    defineUnloadable(cache, linker);
+    assertEquals(2, cache.missCount());
+  }
+
+  @Test
+  public void noFullPrivilegeAccess() {
+    var lookup = MethodHandles.publicLookup();
+    var cache = new ProxyCache();
+    assertThrows(IllegalAccessException.class,
+        () -> cache.defineProxy(lookup, new Class<?>[] { Runnable.class }, __ -> false, void.class, methodInfo -> null));
+  }
+}
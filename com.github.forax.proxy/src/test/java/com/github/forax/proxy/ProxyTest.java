@@ -1,24 +1,50 @@
 package com.github.forax.proxy;
 
 import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import java.util.function.DoubleSupplier;
 import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
 import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import static java.lang.invoke.MethodHandles.constant;
 import static java.lang.invoke.MethodHandles.dropArguments;
 import static java.lang.invoke.MethodHandles.empty;
 import static java.lang.invoke.MethodHandles.identity;
 import static java.lang.invoke.MethodType.methodType;
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -160,4 +186,933 @@ public class ProxyTest {
     var proxy = (Foo) constructor.invokeExact();
     assertEquals(42, proxy.bar(42));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void sameShapeDifferentLinkers() throws Throwable {
+    interface Shaped {
+      int value();
+    }
+    var lookup = MethodHandles.lookup();
+    assertEquals(0, Proxy.bytecodeTemplateCount(Shaped.class));
+    var proxyLookup1 = Proxy.defineProxy(lookup, new Class<?>[] { Shaped.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 1), 0, Object.class));
+    var proxyLookup2 = Proxy.defineProxy(lookup, new Class<?>[] { Shaped.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 2), 0, Object.class));
+    assertEquals(1, Proxy.bytecodeTemplateCount(Shaped.class));  // the bytecode is shared
+    var proxy1 = (Shaped) proxyLookup1.findConstructor(proxyLookup1.lookupClass(), methodType(void.class)).invoke();
+    var proxy2 = (Shaped) proxyLookup2.findConstructor(proxyLookup2.lookupClass(), methodType(void.class)).invoke();
+    assertEquals(1, proxy1.value());
+    assertEquals(2, proxy2.value());
+
+    // another shape, another template
+    Proxy.defineProxy(lookup, new Class<?>[] { Shaped.class }, __ -> false, int.class,
+        methodInfo -> dropArguments(identity(int.class), 0, Object.class));
+    assertEquals(2, Proxy.bytecodeTemplateCount(Shaped.class));
+  }
+
+  @Test
+  public void bytecodeTemplatesBounded() throws Throwable {
+    interface Shaped {
+      int value();
+    }
+    var lookup = MethodHandles.lookup();
+    for(var i = 0; i <= Proxy.MAX_BYTECODE_TEMPLATES; i++) {  // one shape per number of fields
+      Proxy.defineProxy(lookup, new Class<?>[] { Shaped.class }, __ -> false, Collections.nCopies(i, int.class),
+          methodInfo -> { throw new AssertionError(); });
+    }
+    // the template of the proxy without field is not retained anymore
+    assertEquals(Proxy.MAX_BYTECODE_TEMPLATES, Proxy.bytecodeTemplateCount(Shaped.class));
+  }
+
+  @Test
+  public void methodEntryStructuralEquality() throws Throwable {
+    var method = IntBinaryOperator.class.getMethod("applyAsInt", int.class, int.class);
+    var entry1 = Proxy.MethodEntry.of(method);
+    var entry2 = Proxy.MethodEntry.of(method);
+    assertNotSame(entry1, entry2);
+    assertEquals(entry1, entry2);
+    assertEquals(entry1.hashCode(), entry2.hashCode());
+  }
+
+  @Test
+  public void eagerLinking() throws Throwable {
+    interface Foo {
+      int bar(int value);
+      int baz(int value);
+    }
+
+    var lookup = MethodHandles.lookup();
+    var counter = new AtomicInteger();
+    var linker = (Proxy.Linker) methodInfo -> {
+      counter.incrementAndGet();
+      return dropArguments(identity(int.class), 0, Foo.class);
+    };
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Foo.class }, __ -> false, void.class, linker, Proxy.Option.EAGER_LINKING);
+    assertEquals(2, counter.get());
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (Foo) constructor.invoke();
+    assertEquals(42, proxy.bar(42));
+    assertEquals(7, proxy.baz(7));
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  public void eagerLinkingError() {
+    var lookup = MethodHandles.lookup();
+    var linker = (Proxy.Linker) methodInfo -> identity(String.class);
+    assertThrows(LinkageError.class,
+        () -> Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, linker, Proxy.Option.EAGER_LINKING));
+  }
+
+  @Test
+  public void prelink() throws Throwable {
+    interface Foo {
+      int bar(int value);
+      int baz(int value);
+    }
+
+    var lookup = MethodHandles.lookup();
+    var counter = new AtomicInteger();
+    var linker = (Proxy.Linker) methodInfo -> {
+      counter.incrementAndGet();
+      return dropArguments(identity(int.class), 0, Foo.class);
+    };
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Foo.class }, __ -> false, void.class, linker);
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      Proxy.prelink(proxyLookup, executor).join();
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(2, counter.get());
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (Foo) constructor.invoke();
+    assertEquals(42, proxy.bar(42));
+    assertEquals(7, proxy.baz(7));
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  public void backgroundLinking() throws Throwable {
+    interface Foo {
+      int bar(int value);
+      int baz(int value);
+    }
+
+    var lookup = MethodHandles.lookup();
+    var counter = new AtomicInteger();
+    var linker = (Proxy.Linker) methodInfo -> {
+      counter.incrementAndGet();
+      Thread.sleep(10);
+      return dropArguments(identity(int.class), 0, Foo.class);
+    };
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Foo.class }, __ -> false, void.class, linker, Proxy.Option.BACKGROUND_LINKING);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (Foo) constructor.invoke();
+    assertEquals(42, proxy.bar(42));
+    assertEquals(7, proxy.baz(7));
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  public void prelinkNotAProxy() {
+    var lookup = MethodHandles.lookup();
+    assertThrows(IllegalArgumentException.class, () -> Proxy.prelink(lookup, Runnable::run));
+  }
+
+  @Test
+  public void directInvocation() throws Throwable {
+    interface Foo {
+      double m(int i);
+      String s(Object o);
+    }
+    record FooImpl(int x) implements Foo {
+      @Override
+      public double m(int i) {
+        // the caller is the proxy, there is no method handle in between
+        var caller = StackWalker.getInstance(Set.of(StackWalker.Option.SHOW_HIDDEN_FRAMES, StackWalker.Option.RETAIN_CLASS_REFERENCE))
+            .walk(frames -> frames.skip(1).findFirst()).orElseThrow().getDeclaringClass();
+        assertTrue(caller.isHidden());
+        assertTrue(Foo.class.isAssignableFrom(caller));
+        return x + i;
+      }
+      @Override
+      public String s(Object o) {
+        return o.toString();
+      }
+    }
+
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup,
+        new Class<?>[] { Foo.class },
+        method -> method.getDeclaringClass() == Object.class, // override Object methods (toString, equals, hashCode)
+        Foo.class, // delegate field
+        methodInfo -> {
+          var method = methodInfo.reflectAs(Method.class, lookup);
+          return lookup.unreflect(method);  // call the method on the delegate
+        },
+        Proxy.Option.DIRECT_INVOCATION
+    );
+
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Foo.class));
+    var impl = new FooImpl(4);
+    var proxy = (Foo) constructor.invoke(impl);
+    assertEquals(8.0, proxy.m(4));
+    assertEquals("bar", proxy.s("bar"));
+    assertEquals(impl.toString(), proxy.toString());
+    assertEquals(impl.hashCode(), proxy.hashCode());
+  }
+
+  @Test
+  public void directInvocationMixedWithIndy() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var sum = lookup.findStatic(Integer.class, "sum", methodType(int.class, int.class, int.class));
+    var counter = new AtomicInteger();
+    var linker = (Proxy.Linker) methodInfo -> {
+      counter.incrementAndGet();
+      return switch(methodInfo.getName()) {
+        case "applyAsInt" -> sum;  // static call, the proxy is dropped
+        case "toString" -> dropArguments(constant(String.class, "proxy"), 0, Object.class);
+        default -> fail("unknown method " + methodInfo);
+      };
+    };
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntBinaryOperator.class },
+        method -> method.getName().equals("toString"), void.class, linker, Proxy.Option.DIRECT_INVOCATION);
+    assertEquals(2, counter.get());
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (IntBinaryOperator) constructor.invoke();
+    assertEquals(5, proxy.applyAsInt(2, 3));
+    assertEquals("proxy", proxy.toString());
+    assertEquals(2, counter.get());
+  }
+
+  private static final class ChildLoader extends ClassLoader {
+    private ChildLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    private Class<?> define(byte[] bytecode) {
+      return defineClass(null, bytecode, 0, bytecode.length);
+    }
+  }
+
+  @Test
+  public void directInvocationClassNotVisible() throws Throwable {
+    // public class q.Impl { public static int answer() { return 42; } }
+    var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "q/Impl", null, "java/lang/Object", null);
+    var mv = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "answer", "()I", null, null);
+    mv.visitCode();
+    mv.visitIntInsn(Opcodes.BIPUSH, 42);
+    mv.visitInsn(Opcodes.IRETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    writer.visitEnd();
+    var impl = new ChildLoader(ProxyTest.class.getClassLoader()).define(writer.toByteArray());
+    var answer = MethodHandles.publicLookup().findStatic(impl, "answer", methodType(int.class));
+
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> answer, Proxy.Option.DIRECT_INVOCATION);
+    var proxy = (IntSupplier) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    assertEquals(42, proxy.getAsInt());
+  }
+
+  @Test
+  public void methodTable() throws Throwable {
+    interface Foo {
+      int bar(int value);
+      String baz(String value);
+    }
+
+    var lookup = MethodHandles.lookup();
+    var counter = new AtomicInteger();
+    var linker = (Proxy.Linker) methodInfo -> {
+      counter.incrementAndGet();
+      return switch(methodInfo.getName()) {
+        case "bar" -> dropArguments(identity(int.class), 0, Foo.class, int.class);
+        case "baz" -> dropArguments(identity(String.class), 0, Object.class, int.class);
+        default -> fail("unknown method " + methodInfo);
+      };
+    };
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Foo.class }, __ -> false, int.class, linker, Proxy.Option.METHOD_TABLE);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, int.class));
+    var proxy = (Foo) constructor.invoke(3);
+    assertEquals(0, counter.get());
+    for(var i = 0; i < 10; i++) {
+      assertEquals(42, proxy.bar(42));
+      assertEquals("hello", proxy.baz("hello"));
+    }
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  public void methodTableEagerLinking() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var target = lookup.findStatic(Integer.class, "sum", methodType(int.class, int.class, int.class));
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntBinaryOperator.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(target, 0, Object.class), Proxy.Option.METHOD_TABLE, Proxy.Option.EAGER_LINKING);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (IntBinaryOperator) constructor.invoke();
+    assertEquals(5, proxy.applyAsInt(2, 3));
+  }
+
+  @Test
+  public void methodTableLinkingError() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> identity(String.class), Proxy.Option.METHOD_TABLE);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (IntSupplier) constructor.invoke();
+    assertThrows(LinkageError.class, proxy::getAsInt);
+  }
+
+  @Test
+  public void methodTableWideInterface() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var counter = new AtomicInteger();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntStream.class, NavigableMap.class }, __ -> true, void.class,
+        methodInfo -> {
+          counter.incrementAndGet();
+          return empty(methodInfo.getMethodType().insertParameterTypes(0, Object.class));
+        });  // more than 64 methods, the method table is used without the option
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = constructor.invoke();
+    assertEquals(0, ((IntStream) proxy).count());
+    assertEquals(0, ((NavigableMap<?, ?>) proxy).size());
+    assertNull(((NavigableMap<?, ?>) proxy).firstKey());
+    assertEquals(3, counter.get());
+    assertTrue(Proxy.hasMethodTable(proxyLookup));
+  }
+
+  @Test
+  public void invokedynamicPerMethodWideInterface() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntStream.class, NavigableMap.class }, __ -> true, void.class,
+        methodInfo -> empty(methodInfo.getMethodType().insertParameterTypes(0, Object.class)),
+        Proxy.Option.INVOKEDYNAMIC_PER_METHOD);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = constructor.invoke();
+    assertEquals(0, ((IntStream) proxy).count());
+    assertEquals(0, ((NavigableMap<?, ?>) proxy).size());
+    assertFalse(Proxy.hasMethodTable(proxyLookup));
+  }
+
+  @Test
+  public void invokedynamicPerMethodNarrowInterface() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class));
+    var proxy = (IntSupplier) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    assertEquals(42, proxy.getAsInt());
+    assertFalse(Proxy.hasMethodTable(proxyLookup));
+  }
+
+  @Test
+  public void invokedynamicPerMethodErrors() {
+    var lookup = MethodHandles.lookup();
+    Proxy.Linker linker = methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class);
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class,
+            () -> Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, linker,
+                Proxy.Option.INVOKEDYNAMIC_PER_METHOD, Proxy.Option.METHOD_TABLE)),
+        () -> assertThrows(IllegalArgumentException.class,
+            () -> Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, linker,
+                Proxy.Option.INVOKEDYNAMIC_PER_METHOD, Proxy.Option.INSTANCE_METHOD_TABLE))
+    );
+  }
+
+  @Test
+  public void relink() throws Throwable {
+    interface Feature {
+      String name();
+      int version();
+    }
+
+    var lookup = MethodHandles.lookup();
+    var flag = new AtomicInteger(1);
+    var linker = (Proxy.Linker) methodInfo -> switch(methodInfo.getName()) {
+      case "name" -> dropArguments(constant(String.class, "feature" + flag.get()), 0, Object.class);
+      case "version" -> dropArguments(constant(int.class, flag.get()), 0, Object.class);
+      default -> fail("unknown method " + methodInfo);
+    };
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Feature.class }, __ -> false, void.class, linker, Proxy.Option.RELINKABLE);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (Feature) constructor.invoke();
+    assertEquals("feature1", proxy.name());
+    assertEquals(1, proxy.version());
+
+    flag.set(2);
+    Proxy.relink(proxyLookup, method -> method.getName().equals("name"));
+    assertEquals("feature2", proxy.name());
+    assertEquals(1, proxy.version());
+
+    flag.set(3);
+    Proxy.relink(proxyLookup);
+    assertEquals("feature3", proxy.name());
+    assertEquals(3, proxy.version());
+  }
+
+  @Test
+  public void relinkMethodTable() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var flag = new AtomicInteger(1);
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, flag.get()), 0, Object.class),
+        Proxy.Option.RELINKABLE, Proxy.Option.METHOD_TABLE);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (IntSupplier) constructor.invoke();
+    assertEquals(1, proxy.getAsInt());
+    flag.set(2);
+    Proxy.relink(proxyLookup);
+    assertEquals(2, proxy.getAsInt());
+  }
+
+  @Test
+  public void relinkMethodTableOnlyLinkedMethods() throws Throwable {
+    interface Pair {
+      int first();
+      int second();
+    }
+    var lookup = MethodHandles.lookup();
+    var flag = new AtomicInteger(1);
+    var counter = new AtomicInteger();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Pair.class }, __ -> false, void.class,
+        methodInfo -> {
+          counter.incrementAndGet();
+          return dropArguments(constant(int.class, flag.get()), 0, Object.class);
+        },
+        Proxy.Option.RELINKABLE, Proxy.Option.METHOD_TABLE);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (Pair) constructor.invoke();
+    assertEquals(1, proxy.first());
+    assertEquals(1, counter.get());
+    flag.set(2);
+    Proxy.relink(proxyLookup);
+    assertEquals(2, counter.get());  // second is not linked yet
+    assertEquals(2, proxy.first());
+    assertEquals(2, proxy.second());
+    assertEquals(3, counter.get());
+  }
+
+  private static void relinkDuringFirstCall(Proxy.Option... options) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var version = new AtomicInteger();
+    var linking = new CountDownLatch(1);
+    var relinked = new CountDownLatch(1);
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> {
+          var value = version.get();
+          if (value == 0) {  // the first call waits for the relink
+            linking.countDown();
+            relinked.await();
+          }
+          return dropArguments(constant(int.class, value), 0, Object.class);
+        }, options);
+    var proxy = (IntSupplier) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    var firstCall = CompletableFuture.supplyAsync(proxy::getAsInt);
+    linking.await();
+    version.set(1);
+    Proxy.relink(proxyLookup);
+    relinked.countDown();
+    assertEquals(1, firstCall.get());
+    assertEquals(1, proxy.getAsInt());
+  }
+
+  @Test
+  public void relinkDuringFirstCall() throws Throwable {
+    relinkDuringFirstCall(Proxy.Option.RELINKABLE);
+  }
+
+  @Test
+  public void relinkMethodTableDuringFirstCall() throws Throwable {
+    relinkDuringFirstCall(Proxy.Option.RELINKABLE, Proxy.Option.METHOD_TABLE);
+  }
+
+  @Test
+  public void relinkDoesNotBlockFirstCalls() throws Throwable {
+    interface Pair {
+      int first();
+      int second();
+    }
+    var lookup = MethodHandles.lookup();
+    var version = new AtomicInteger();
+    var linking = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Pair.class }, __ -> false, void.class,
+        methodInfo -> {
+          var value = version.get();
+          if (value == 1 && methodInfo.getName().equals("first")) {  // the relink waits
+            linking.countDown();
+            release.await();
+          }
+          return dropArguments(constant(int.class, value), 0, Object.class);
+        },
+        Proxy.Option.RELINKABLE, Proxy.Option.METHOD_TABLE);
+    var proxy = (Pair) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    assertEquals(0, proxy.first());
+    version.set(1);
+    var relink = CompletableFuture.runAsync(() -> {
+      try {
+        Proxy.relink(proxyLookup);
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    });
+    try {
+      linking.await();
+      assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertEquals(1, proxy.second()));
+    } finally {
+      release.countDown();
+    }
+    relink.get();
+    assertEquals(1, proxy.first());
+  }
+
+  @Test
+  public void relinkNotRelinkable() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 1), 0, Object.class));
+    assertThrows(IllegalStateException.class, () -> Proxy.relink(proxyLookup));
+  }
+
+  @Test
+  public void multipleFields() throws Throwable {
+    interface Shard {
+      String get(String key);
+      int shard();
+    }
+    class Impl {
+      static String get(int shard, Map<String, String> map, String key) {
+        return shard + ":" + map.get(key);
+      }
+    }
+
+    var lookup = MethodHandles.lookup();
+    var get = lookup.findStatic(Impl.class, "get", methodType(String.class, int.class, Map.class, String.class));
+    var linker = (Proxy.Linker) methodInfo -> switch(methodInfo.getName()) {
+      case "get" -> dropArguments(get, 0, Object.class);
+      case "shard" -> dropArguments(dropArguments(identity(int.class), 0, Object.class), 2, Map.class);
+      default -> fail("unknown method " + methodInfo);
+    };
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Shard.class }, __ -> false, List.of(int.class, Map.class), linker);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, int.class, Map.class));
+    var proxy = (Shard) constructor.invoke(3, Map.of("foo", "bar"));
+    assertEquals("3:bar", proxy.get("foo"));
+    assertEquals(3, proxy.shard());
+  }
+
+  @Test
+  public void multipleFieldsWide() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(identity(double.class), 0, Object.class, long.class, String.class);
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { DoubleSupplier.class }, __ -> false, List.of(long.class, String.class, double.class), linker,
+        Proxy.Option.DIRECT_INVOCATION);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, long.class, String.class, double.class));
+    var proxy = (DoubleSupplier) constructor.invoke(1L, "foo", 4.0);
+    assertEquals(4.0, proxy.getAsDouble());
+  }
+
+  @Test
+  public void voidField() {
+    var lookup = MethodHandles.lookup();
+    assertThrows(IllegalArgumentException.class,
+        () -> Proxy.defineProxy(lookup, new Class<?>[] { Runnable.class }, __ -> false, List.of(void.class), methodInfo -> null));
+  }
+
+  @Test
+  public void constantProxy() throws Throwable {
+    interface Config {
+      String get(String key);
+    }
+
+    var lookup = MethodHandles.lookup();
+    var config = Map.of("host", "localhost");
+    var get = lookup.findVirtual(Map.class, "get", methodType(Object.class, Object.class));
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(get, 0, Object.class);
+    var proxyLookup = Proxy.defineConstantProxy(lookup, new Class<?>[] { Config.class }, __ -> false, Map.class, config, linker);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (Config) constructor.invoke();
+    assertEquals("localhost", proxy.get("host"));
+    assertNull(proxy.get("port"));
+  }
+
+  @Test
+  public void constantProxyDirectInvocation() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    IntSupplier supplier = () -> 42;
+    var proxyLookup = Proxy.defineConstantProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, IntSupplier.class, supplier,
+        methodInfo -> lookup.unreflect(methodInfo.reflectAs(Method.class, lookup)), Proxy.Option.DIRECT_INVOCATION);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (IntSupplier) constructor.invoke();
+    assertEquals(42, proxy.getAsInt());
+  }
+
+  @Test
+  public void constantProxyPrimitive() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineConstantProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class, 42,
+        methodInfo -> dropArguments(identity(int.class), 0, Object.class));
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = (IntSupplier) constructor.invoke();
+    assertEquals(42, proxy.getAsInt());
+  }
+
+  @Test
+  public void constantProxyWrongType() {
+    var lookup = MethodHandles.lookup();
+    assertThrows(IllegalArgumentException.class,
+        () -> Proxy.defineConstantProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, String.class, 42, methodInfo -> null));
+    assertThrows(IllegalArgumentException.class,
+        () -> Proxy.defineConstantProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class, null, methodInfo -> null));
+  }
+
+  private static double callerIsProxy(DoubleSupplier supplier) {
+    // the caller is the proxy, there is no method handle in between
+    var caller = StackWalker.getInstance(Set.of(StackWalker.Option.SHOW_HIDDEN_FRAMES, StackWalker.Option.RETAIN_CLASS_REFERENCE))
+        .walk(frames -> frames.skip(1).findFirst()).orElseThrow().getDeclaringClass();
+    assertTrue(caller.isHidden());
+    assertTrue(DoubleSupplier.class.isAssignableFrom(caller));
+    return 2.0;
+  }
+
+  @Test
+  public void declaringClassReceiver() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var callerIsProxy = lookup.findStatic(ProxyTest.class, "callerIsProxy", methodType(double.class, DoubleSupplier.class));
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class, DoubleSupplier.class }, __ -> false, void.class,
+        methodInfo -> switch(methodInfo.getName()) {
+          case "getAsInt" -> dropArguments(constant(int.class, 1), 0, IntSupplier.class);
+          case "getAsDouble" -> callerIsProxy;  // typed with the second interface, no cast needed
+          default -> throw new AssertionError();
+        },
+        Proxy.Option.DECLARING_CLASS_RECEIVER, Proxy.Option.DIRECT_INVOCATION);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy = constructor.invoke();
+    assertEquals(1, ((IntSupplier) proxy).getAsInt());
+    assertEquals(2.0, ((DoubleSupplier) proxy).getAsDouble());
+  }
+
+  @Test
+  public void factory() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class,
+        methodInfo -> dropArguments(identity(int.class), 0, Object.class));
+    @SuppressWarnings("unchecked")
+    IntFunction<IntSupplier> factory = Proxy.defineFactory(proxyLookup, IntFunction.class);
+    assertEquals(42, factory.apply(42).getAsInt());
+    assertEquals(proxyLookup.lookupClass(), factory.apply(7).getClass());
+  }
+
+  @Test
+  public void factoryCovariantReturnType() throws Throwable {
+    interface Factory extends BiFunction<Long, String, Object> {
+      DoubleSupplier apply(Long l, String s);
+    }
+    var lookup = MethodHandles.lookup();
+    var linker = (Proxy.Linker) methodInfo -> dropArguments(constant(double.class, 3.0), 0, Object.class, long.class, String.class);
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { DoubleSupplier.class }, __ -> false, List.of(long.class, String.class), linker);
+    var factory = Proxy.defineFactory(proxyLookup, Factory.class);
+    assertEquals(3.0, factory.apply(1L, "foo").getAsDouble());
+    assertEquals(3.0, ((DoubleSupplier) ((BiFunction<Long, String, Object>) factory).apply(2L, "bar")).getAsDouble());
+  }
+
+  @Test
+  public void factoryNotCompatible() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class,
+        methodInfo -> dropArguments(identity(int.class), 0, Object.class));
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> Proxy.defineFactory(proxyLookup, Supplier.class)),  // wrong arity
+        () -> assertThrows(IllegalArgumentException.class, () -> Proxy.defineFactory(proxyLookup, IntUnaryOperator.class)),  // wrong return type
+        () -> assertThrows(IllegalArgumentException.class, () -> Proxy.defineFactory(proxyLookup, List.class)),  // not functional
+        () -> assertThrows(IllegalArgumentException.class, () -> Proxy.defineFactory(lookup, IntFunction.class))  // not a proxy
+    );
+  }
+
+  @Test
+  public void singleton() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class), Proxy.Option.SINGLETON);
+    var singleton = Proxy.singleton(proxyLookup, IntSupplier.class);
+    assertEquals(42, singleton.getAsInt());
+    assertSame(singleton, Proxy.singleton(proxyLookup, IntSupplier.class));
+    @SuppressWarnings("unchecked")
+    Supplier<IntSupplier> factory = Proxy.defineFactory(proxyLookup, Supplier.class);
+    assertSame(singleton, factory.get());
+  }
+
+  @Test
+  public void singletonConstantProxy() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineConstantProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class, 42,
+        methodInfo -> dropArguments(identity(int.class), 0, Object.class), Proxy.Option.SINGLETON);
+    assertEquals(42, Proxy.singleton(proxyLookup, IntSupplier.class).getAsInt());
+  }
+
+  @Test
+  public void singletonErrors() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    assertThrows(IllegalArgumentException.class,
+        () -> Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, int.class, methodInfo -> null, Proxy.Option.SINGLETON));
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class));
+    assertThrows(IllegalStateException.class, () -> Proxy.singleton(proxyLookup, IntSupplier.class));
+  }
+
+  @Test
+  public void valueObjectMethods() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var linker = (Proxy.Linker) methodInfo -> {
+      assertEquals(IntSupplier.class, methodInfo.getDeclaringClass());  // not called for equals/hashCode/toString
+      return dropArguments(dropArguments(identity(int.class), 0, Object.class), 2, String.class);
+    };
+    for(var options: List.of(
+        new Proxy.Option[] { Proxy.Option.VALUE_OBJECT_METHODS },
+        new Proxy.Option[] { Proxy.Option.VALUE_OBJECT_METHODS, Proxy.Option.DIRECT_INVOCATION },
+        new Proxy.Option[] { Proxy.Option.VALUE_OBJECT_METHODS, Proxy.Option.METHOD_TABLE })) {
+      var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, List.of(int.class, String.class), linker, options);
+      var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, int.class, String.class));
+      var proxy1 = (IntSupplier) constructor.invoke(42, "foo");
+      var proxy2 = (IntSupplier) constructor.invoke(42, "foo");
+      var proxy3 = (IntSupplier) constructor.invoke(42, "bar");
+      assertEquals(42, proxy1.getAsInt());
+      assertEquals(proxy1, proxy2);
+      assertEquals(proxy1.hashCode(), proxy2.hashCode());
+      assertNotEquals(proxy1, proxy3);
+      assertNotEquals(proxy1, null);
+      assertEquals(Set.of(proxy1, proxy3), Set.of(proxy2, proxy3));
+      assertTrue(proxy1.toString().contains("field0=42"));
+      assertTrue(proxy1.toString().contains("field1=foo"));
+    }
+  }
+
+  @Test
+  public void valueObjectMethodsNoField() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Runnable.class }, __ -> false, void.class,
+        methodInfo -> empty(methodType(void.class, Object.class)), Proxy.Option.VALUE_OBJECT_METHODS);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class));
+    var proxy1 = (Runnable) constructor.invoke();
+    var proxy2 = (Runnable) constructor.invoke();
+    assertEquals(proxy1, proxy2);
+    assertEquals(proxy1.hashCode(), proxy2.hashCode());
+    assertNotEquals(proxy1, (Runnable) () -> {});
+  }
+
+  @Test
+  public void instanceMethodTable() throws Throwable {
+    interface Policy {
+      boolean allow(String user);
+      int limit();
+    }
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { Policy.class }, __ -> false, int.class,
+        methodInfo -> { throw new AssertionError(); }, Proxy.Option.INSTANCE_METHOD_TABLE);
+    var equals = lookup.findVirtual(String.class, "equals", methodType(boolean.class, Object.class));
+    var adminOnly = (Proxy.Linker) methodInfo -> switch(methodInfo.getName()) {
+      case "allow" -> dropArguments(equals.bindTo("admin"), 0, Object.class, int.class);
+      case "limit" -> dropArguments(identity(int.class), 0, Object.class);
+      default -> throw new AssertionError();
+    };
+    var everybody = (Proxy.Linker) methodInfo -> switch(methodInfo.getName()) {
+      case "allow" -> dropArguments(constant(boolean.class, true), 0, Object.class, int.class, String.class);
+      case "limit" -> dropArguments(constant(int.class, -1), 0, Object.class, int.class);
+      default -> throw new AssertionError();
+    };
+    var adminOnlyTable = Proxy.instanceMethodTable(proxyLookup, adminOnly);
+    assertNotSame(adminOnlyTable, Proxy.instanceMethodTable(proxyLookup, adminOnly));  // the caller owns the table
+    var everybodyTable = Proxy.instanceMethodTable(proxyLookup, everybody);
+
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Proxy.MethodTable.class, int.class));
+    var policy1 = (Policy) constructor.invoke(adminOnlyTable, 10);
+    var policy2 = (Policy) constructor.invoke(everybodyTable, 10);
+    var policy3 = (Policy) constructor.invoke(adminOnlyTable, 20);
+    assertAll(
+        () -> assertTrue(policy1.allow("admin")),
+        () -> assertFalse(policy1.allow("bob")),
+        () -> assertEquals(10, policy1.limit()),
+        () -> assertTrue(policy2.allow("bob")),
+        () -> assertEquals(-1, policy2.limit()),
+        () -> assertEquals(20, policy3.limit())
+    );
+  }
+
+  @Test
+  public void instanceMethodTableErrors() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    assertThrows(IllegalArgumentException.class,
+        () -> Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, methodInfo -> null,
+            Proxy.Option.INSTANCE_METHOD_TABLE, Proxy.Option.RELINKABLE));
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class));
+    assertThrows(IllegalStateException.class,
+        () -> Proxy.instanceMethodTable(proxyLookup, methodInfo -> null));
+    var proxyLookup2 = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> null, Proxy.Option.INSTANCE_METHOD_TABLE);
+    assertThrows(LinkageError.class,
+        () -> Proxy.instanceMethodTable(proxyLookup2, methodInfo -> { throw new Exception(); }));
+    assertThrows(IllegalStateException.class, () -> Proxy.prelink(proxyLookup2, Runnable::run));
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class,
+            () -> Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, methodInfo -> null,
+                Proxy.Option.INSTANCE_METHOD_TABLE, Proxy.Option.EAGER_LINKING)),
+        () -> assertThrows(IllegalArgumentException.class,
+            () -> Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class, methodInfo -> null,
+                Proxy.Option.INSTANCE_METHOD_TABLE, Proxy.Option.BACKGROUND_LINKING))
+    );
+  }
+
+  @Test
+  public void instanceMethodTableOfAnotherProxyClass() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    Proxy.Linker linker = methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class);
+    var proxyLookup1 = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        linker, Proxy.Option.INSTANCE_METHOD_TABLE);
+    var proxyLookup2 = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        linker, Proxy.Option.INSTANCE_METHOD_TABLE);
+    var table1 = Proxy.instanceMethodTable(proxyLookup1, linker);
+    var constructor1 = proxyLookup1.findConstructor(proxyLookup1.lookupClass(), methodType(void.class, Proxy.MethodTable.class));
+    var constructor2 = proxyLookup2.findConstructor(proxyLookup2.lookupClass(), methodType(void.class, Proxy.MethodTable.class));
+    assertEquals(42, ((IntSupplier) constructor1.invoke(table1)).getAsInt());
+    assertThrows(IllegalArgumentException.class, () -> constructor2.invoke(table1));
+    assertThrows(NullPointerException.class, () -> constructor1.invoke((Proxy.MethodTable) null));
+  }
+
+  @Test
+  public void instanceMethodTableFromTheLinker() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> { throw new AssertionError(); }, Proxy.Option.INSTANCE_METHOD_TABLE);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Proxy.MethodTable.class));
+    var inner = (Proxy.Linker) methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class);
+    var outer = (Proxy.Linker) methodInfo -> {
+      var innerProxy = (IntSupplier) constructor.invoke(Proxy.instanceMethodTable(proxyLookup, inner));
+      return dropArguments(constant(int.class, innerProxy.getAsInt() + 1), 0, Object.class);
+    };
+    var proxy = (IntSupplier) constructor.invoke(Proxy.instanceMethodTable(proxyLookup, outer));
+    assertEquals(43, proxy.getAsInt());
+  }
+
+  @Test
+  public void instanceMethodTableLinkerNotRetained() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> { throw new AssertionError(); }, Proxy.Option.INSTANCE_METHOD_TABLE);
+    var references = new ArrayList<WeakReference<?>>();
+    for(var i = 0; i < 100; i++) {
+      var value = i;
+      var linker = (Proxy.Linker) methodInfo -> dropArguments(constant(int.class, value), 0, Object.class);
+      var table = Proxy.instanceMethodTable(proxyLookup, linker);
+      var proxy = (IntSupplier) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Proxy.MethodTable.class)).invoke(table);
+      assertEquals(i, proxy.getAsInt());
+      references.add(new WeakReference<>(linker));
+      references.add(new WeakReference<>(table));
+    }
+    assertTrue(isCollected(references));
+  }
+
+  interface Named {
+    String name();
+  }
+  interface Aged {
+    int age();
+    default boolean isAdult() {
+      return age() >= 18;
+    }
+  }
+
+  @Test
+  public void mixin() throws Throwable {
+    record Person(String name) implements Named {
+      @Override
+      public String name() {
+        // the caller is the proxy, there is no method handle in between
+        var caller = StackWalker.getInstance(Set.of(StackWalker.Option.SHOW_HIDDEN_FRAMES, StackWalker.Option.RETAIN_CLASS_REFERENCE))
+            .walk(frames -> frames.skip(1).findFirst()).orElseThrow().getDeclaringClass();
+        assertTrue(caller.isHidden());
+        assertTrue(Named.class.isAssignableFrom(caller));
+        return name;
+      }
+    }
+    record Age(int age) implements Aged {
+      @Override
+      public boolean isAdult() {
+        return age >= 21;
+      }
+    }
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineMixin(lookup, new Class<?>[] { Named.class, Aged.class });
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Named.class, Aged.class));
+    var proxy = constructor.invoke(new Person("Ana"), new Age(19));
+    assertEquals("Ana", ((Named) proxy).name());
+    assertEquals(19, ((Aged) proxy).age());
+    assertFalse(((Aged) proxy).isAdult());  // the default method is forwarded too
+  }
+
+  @Test
+  public void mixinValueObjectMethods() throws Throwable {
+    record Person(String name) implements Named { }
+    record Age(int age) implements Aged { }
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineMixin(lookup, new Class<?>[] { Named.class, Aged.class }, Proxy.Option.VALUE_OBJECT_METHODS);
+    var constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class, Named.class, Aged.class));
+    var proxy1 = constructor.invoke(new Person("Ana"), new Age(19));
+    var proxy2 = constructor.invoke(new Person("Ana"), new Age(19));
+    assertEquals(proxy1, proxy2);
+    assertEquals(proxy1.hashCode(), proxy2.hashCode());
+    assertTrue(((Aged) proxy1).isAdult());
+  }
+
+  @Test
+  public void mixinSubInterface() {
+    var lookup = MethodHandles.lookup();
+    assertThrows(IllegalArgumentException.class,
+        () -> Proxy.defineMixin(lookup, new Class<?>[] { Iterable.class, Collection.class }));
+    assertThrows(IllegalArgumentException.class,
+        () -> Proxy.defineMixin(lookup, new Class<?>[] { Object.class }));
+  }
+
+  private static WeakReference<Class<?>> defineAndCallProxy(Proxy.Option... options) throws Throwable {
+    var lookup = MethodHandles.lookup();
+    var proxyLookup = Proxy.defineProxy(lookup, new Class<?>[] { IntSupplier.class }, __ -> false, void.class,
+        methodInfo -> dropArguments(constant(int.class, 42), 0, Object.class), options);
+    var proxy = (IntSupplier) proxyLookup.findConstructor(proxyLookup.lookupClass(), methodType(void.class)).invoke();
+    assertEquals(42, proxy.getAsInt());
+    return new WeakReference<>(proxyLookup.lookupClass());
+  }
+
+  private static boolean isCollected(List<? extends WeakReference<?>> references) throws InterruptedException {
+    for(var i = 0; i < 20; i++) {
+      System.gc();
+      if (references.stream().allMatch(reference -> reference.get() == null)) {
+        return true;
+      }
+      Thread.sleep(10);
+    }
+    return false;
+  }
+
+  @Test
+  public void unloadable() throws Throwable {
+    var reference = defineAndCallProxy(Proxy.Option.UNLOADABLE);
+    assertTrue(isCollected(List.of(reference)));
+  }
+
+  @Test
+  public void unloadableChurn() throws Throwable {
+    var references = new ArrayList<WeakReference<Class<?>>>();
+    for(var i = 0; i < 1_000; i++) {
+      references.add(defineAndCallProxy(Proxy.Option.UNLOADABLE, Proxy.Option.EAGER_LINKING));
+    }
+    assertTrue(isCollected(references));
+  }
+
+  @Test
+  public void notUnloadableByDefault() throws Throwable {
+    var reference = defineAndCallProxy();
+    assertFalse(isCollected(List.of(reference)));
+  }
+}
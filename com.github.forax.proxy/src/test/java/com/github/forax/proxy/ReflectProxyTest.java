@@ -0,0 +1,137 @@
+package com.github.forax.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReflectProxyTest {
+  @Test
+  public void invocationHandler() throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    var proxy = (IntBinaryOperator) ReflectProxy.newProxyInstance(lookup, new Class<?>[] { IntBinaryOperator.class },
+        (p, method, args) -> {
+          assertEquals(IntBinaryOperator.class.getMethod("applyAsInt", int.class, int.class), method);
+          assertTrue(p instanceof IntBinaryOperator);
+          return (Integer) args[0] + (Integer) args[1];
+        });
+    assertEquals(5, proxy.applyAsInt(2, 3));
+  }
+
+  @Test
+  public void noArgument() throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    var proxy = (IntSupplier) ReflectProxy.newProxyInstance(lookup, new Class<?>[] { IntSupplier.class },
+        (p, method, args) -> {
+          assertNull(args);
+          return 42;
+        });
+    assertEquals(42, proxy.getAsInt());
+  }
+
+  @Test
+  public void objectMethods() throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    var methods = new ArrayList<Method>();
+    var proxy = ReflectProxy.newProxyInstance(lookup, new Class<?>[] { Runnable.class },
+        (p, method, args) -> {
+          methods.add(method);
+          return switch(method.getName()) {
+            case "equals" -> p == args[0];
+            case "hashCode" -> args == null? 42: -1;  // no argument array
+            case "toString" -> args == null? "proxy": "array";
+            default -> null;
+          };
+        });
+    assertAll(
+        () -> assertTrue(proxy.equals(proxy)),
+        () -> assertFalse(proxy.equals("foo")),
+        () -> assertEquals(42, proxy.hashCode()),
+        () -> assertEquals("proxy", proxy.toString())
+    );
+    assertTrue(methods.stream().allMatch(method -> method.getDeclaringClass() == Object.class));
+    assertEquals(4, methods.size());
+  }
+
+  interface Hello {
+    String name();
+
+    default String hello() {
+      return "hello " + name();
+    }
+  }
+
+  @Test
+  public void defaultMethod() throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    var proxy = (Hello) ReflectProxy.newProxyInstance(lookup, new Class<?>[] { Hello.class },
+        (p, method, args) -> method.getName());
+    assertEquals("name", proxy.name());
+    assertEquals("hello", proxy.hello());
+  }
+
+  interface Reader {
+    String read() throws IOException;
+    String get();
+  }
+
+  @Test
+  public void exceptions() throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    var proxy = (Reader) ReflectProxy.newProxyInstance(lookup, new Class<?>[] { Reader.class },
+        (p, method, args) -> {
+          throw new IOException(method.getName());
+        });
+    assertEquals("read", assertThrows(IOException.class, proxy::read).getMessage());
+    var e = assertThrows(UndeclaredThrowableException.class, proxy::get);
+    assertEquals("get", e.getCause().getMessage());
+
+    var proxy2 = (Reader) ReflectProxy.newProxyInstance(lookup, new Class<?>[] { Reader.class },
+        (p, method, args) -> {
+          throw new IllegalStateException();
+        });
+    assertThrows(IllegalStateException.class, proxy2::get);
+  }
+
+  @Test
+  public void nullReturnValue() throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    var proxy = (IntSupplier) ReflectProxy.newProxyInstance(lookup, new Class<?>[] { IntSupplier.class },
+        (p, method, args) -> null);
+    assertThrows(NullPointerException.class, proxy::getAsInt);
+  }
+
+  @Test
+  public void sameProxyClass() throws IllegalAccessException {
+    var lookup = MethodHandles.lookup();
+    InvocationHandler handler = (p, method, args) -> 0;
+    var proxy1 = ReflectProxy.newProxyInstance(lookup, new Class<?>[] { IntSupplier.class, Runnable.class }, handler);
+    var proxy2 = ReflectProxy.newProxyInstance(lookup, new Class<?>[] { IntSupplier.class, Runnable.class }, handler);
+    var proxy3 = ReflectProxy.newProxyInstance(lookup, new Class<?>[] { Runnable.class }, handler);
+    assertSame(proxy1.getClass(), proxy2.getClass());
+    assertFalse(proxy1.getClass() == proxy3.getClass());
+    assertTrue(proxy1.getClass().isHidden());
+  }
+
+  @Test
+  public void noFullPrivilegeAccess() {
+    var lookup = MethodHandles.publicLookup();
+    assertThrows(IllegalAccessException.class,
+        () -> ReflectProxy.newProxyInstance(lookup, new Class<?>[] { Runnable.class }, (p, method, args) -> null));
+  }
+}